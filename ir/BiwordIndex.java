@@ -10,7 +10,9 @@
 
 package ir;
 
-import java.util.HashMap;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.List;
 import java.util.LinkedList;
@@ -25,32 +27,98 @@ import java.util.Collections;
  */
 public class BiwordIndex implements Index {
     private final int N = 17486; // Number of documents in collection.
-    private HashMap<String, HashMap<String, PostingsList>> index = new HashMap<String, HashMap<String, PostingsList>>();
-    private String previousWord = null;
+    /** The postings of each biword, by the term IDs of its first and second word. */
+    private IntMap<IntMap<PostingsList>> index = new IntMap<IntMap<PostingsList>>();
+    private int previousTermID = -1;
     private int previousDocID = -1;
 
+    /** The document lengths by docID, built from docLengths for ranked retrieval. */
+    private int[] docLengthTable = null;
+    private int docLengthTableCount = 0;
+
+    /** The directory where the index is saved, relative to the working directory. */
+    public static final String INDEX_DIRNAME = "biwordindex";
+    public static final String DICTIONARY_FILENAME = "dictionary";
+    public static final String POSTINGS_FILENAME = "postings";
+
+    /** The saved index in INDEX_DIRNAME. */
+    private final IndexFiles files = new IndexFiles(INDEX_DIRNAME);
+
+    /**
+     *  True if documents have been indexed since the index was read or
+     *  written, so that cleanup() has something to save.
+     */
+    private boolean modified = false;
+
+    /**
+     *  The saved postings, memory-mapped, or null if the index has not
+     *  been read from disk. The biwords starting with a term are read
+     *  from here the first time one of them is looked up.
+     */
+    private ByteBuffer postingsFile = null;
+
+    /** Where the saved biwords starting with each term ID are in postingsFile, or -1. */
+    private int[] postingsOffsets = new int[0];
+
     /**
      *  Inserts this token in the index.
      */
     public void insert( String token, int docID, int offset ) {
+	insert( dictionary.intern( token ), docID, offset );
+    }
+
+    /**
+     *  Inserts the term with this term ID in the index.
+     */
+    public void insert( int termID, int docID, int offset ) {
+	modified = true;
 	if (docID != previousDocID) {
 	    previousDocID = docID;
-	    previousWord = token;
+	    previousTermID = termID;
 	    return;
 	}
 
-	if (!index.containsKey(previousWord)) {
-	    index.put(previousWord, new HashMap<String, PostingsList>());
+	IntMap<PostingsList> wordMap = wordMap(previousTermID);
+	if (wordMap == null) {
+	    wordMap = new IntMap<PostingsList>();
+	    index.put(previousTermID, wordMap);
 	}
 
-	if (!index.get(previousWord).containsKey(token)) {
-	    index.get(previousWord).put(token, new PostingsList());
+	PostingsList pl = wordMap.get(termID);
+	if (pl == null) {
+	    pl = new PostingsList();
+	    wordMap.put(termID, pl);
 	}
 
-	PostingsList pl = index.get(previousWord).get(token);
 	// Use second word in biword as offset position. Might be dumb.
 	pl.add(docID, offset);
-	previousWord = token;
+	previousTermID = termID;
+    }
+
+    /**
+     *  Returns the postings of the biwords starting with the term with
+     *  this term ID, by the term ID of their second word, or null if
+     *  there are none.
+     */
+    private IntMap<PostingsList> wordMap( int firstTermID ) {
+	IntMap<PostingsList> wordMap = index.get(firstTermID);
+	if (wordMap == null && firstTermID < postingsOffsets.length && postingsOffsets[firstTermID] >= 0) {
+	    wordMap = readWordMap(postingsOffsets[firstTermID]);
+	    index.put(firstTermID, wordMap);
+	}
+	return wordMap;
+    }
+
+    /**
+     *  Compresses all postings lists once all documents are inserted.
+     */
+    public void finishIndexing() {
+	for (int i = 0; i < index.size(); ++i) {
+	    IntMap<PostingsList> wordMap = index.value(i);
+	    for (int j = 0; j < wordMap.size(); ++j) {
+		wordMap.value(j).compress();
+	    }
+	}
     }
 
     /**
@@ -88,20 +156,33 @@ public class BiwordIndex implements Index {
 	return rankedRetrieval(query);
     }
 
+    /**
+     *  Returns the query.maxResults documents with the best tf-idf scores
+     *  for the biwords of the query, scored into a dense accumulator
+     *  indexed by docID.
+     */
     private PostingsList rankedRetrieval(Query query) {
-	PostingsList ret = new PostingsList();
+	int[] lengths = docLengthTable();
+	float[] scores = new float[lengths.length];
+	boolean[] seen = new boolean[lengths.length];
 
 	// Number of biwords in query.
 	int n = query.terms.size() - 1;
 
 	// Iterate over biwords in query.
 	for (int i = 1; i < query.terms.size(); ++i) {
-	    HashMap<String, PostingsList> wordMap = index.get(query.terms.get(i-1));
+	    int firstTermID = dictionary.lookup(query.terms.get(i-1));
+	    int secondTermID = dictionary.lookup(query.terms.get(i));
+	    if (firstTermID < 0 || secondTermID < 0) {
+		continue;
+	    }
+
+	    IntMap<PostingsList> wordMap = wordMap(firstTermID);
 	    if (wordMap == null) {
 		continue;
 	    }
 
-	    PostingsList pl = wordMap.get(query.terms.get(i));
+	    PostingsList pl = wordMap.get(secondTermID);
 	    if (pl == null) {
 		continue;
 	    }
@@ -111,19 +192,171 @@ public class BiwordIndex implements Index {
 	    double queryTfIdf = queryTf * idf / n;
 
 	    // Iterate over documents containing biword.
-	    for (int j = 0; j < pl.size(); ++j) {
-		PostingsEntry pe = pl.get(j);
-		double docTfIdf = pe.tf() * idf / docLengths.get("" + pe.docID);
-		pe.score = queryTfIdf * docTfIdf;
-		ret.add(pe);
+	    PostingsIterator it = pl.iterator();
+	    while (it.next()) {
+		int d = it.docID();
+		double docTfIdf = it.tf() * idf / lengths[d];
+		scores[d] += queryTfIdf * docTfIdf;
+		seen[d] = true;
 	    }
 	}
-	ret.sort();
-	return ret;
+	return ResultHeap.topResults(scores, seen, query.maxResults);
     }
 
+    /**
+     *  Returns the length of every document in an array indexed by docID,
+     *  which is rebuilt from docLengths whenever documents have been added.
+     */
+    private int[] docLengthTable() {
+	if (docLengthTable == null || docLengthTableCount != docLengths.size()) {
+	    int max = -1;
+	    for (String docID : docLengths.keySet()) {
+		max = Math.max(max, Integer.parseInt(docID));
+	    }
+	    int[] table = new int[max + 1];
+	    for (String docID : docLengths.keySet()) {
+		table[Integer.parseInt(docID)] = docLengths.get(docID);
+	    }
+	    docLengthTable = table;
+	    docLengthTableCount = docLengths.size();
+	}
+	return docLengthTable;
+    }
+
+
+
+    /**
+     *  Returns the document vector (term frequencies) of a document.
+     */
+    public TermCounts getDocumentVector( int docID ) {
+	return documentVectors.get(docID);
+    }
+
+
+    /**
+     *  Writes the index to INDEX_DIRNAME, as a new version of the files
+     *  that replaces the old one as a whole (see IndexFiles). Writing
+     *  fails if a file would be larger than 2 GB.
+     *
+     *  The files are:
+     *
+     *  postings:   for each term that starts a biword, the number of
+     *              biwords starting with it, followed by the term ID of
+     *              the second word, the number of postings, the number
+     *              of bytes of postings and the postings as compressed
+     *              by PostingsList.compress() for each biword.
+     *  dictionary: the number of terms, followed by (postings offset or
+     *              -1, term) for each term ID.
+     *  docids:     the number of documents, followed by (docID, path).
+     *  doclengths: the number of documents, followed by (docID, length).
+     */
+    public void writeIndexToDisk() {
+	try {
+	    files.create();
+	    int[] offsets = new int[dictionary.size()];
+	    DataOutputStream out = files.createFile(POSTINGS_FILENAME);
+	    for (int termID = 0; termID < dictionary.size(); termID++) {
+		IntMap<PostingsList> wordMap = wordMap(termID);
+		offsets[termID] = wordMap == null ? -1 : IndexFiles.offset(out);
+		if (wordMap == null) {
+		    continue;
+		}
+		out.writeInt(wordMap.size());
+		for (int j = 0; j < wordMap.size(); ++j) {
+		    PostingsList pl = wordMap.value(j);
+		    pl.compress();
+		    ByteBuffer bytes = pl.compressed();
+		    out.writeInt(wordMap.key(j));
+		    out.writeInt(pl.size());
+		    out.writeInt(bytes.remaining());
+		    while (bytes.hasRemaining()) {
+			out.write(bytes.get());
+		    }
+		}
+	    }
+	    IndexFiles.close(out);
+
+	    out = files.createFile(DICTIONARY_FILENAME);
+	    out.writeInt(dictionary.size());
+	    for (int termID = 0; termID < dictionary.size(); termID++) {
+		out.writeInt(offsets[termID]);
+		IndexFiles.writeString(out, dictionary.term(termID));
+	    }
+	    IndexFiles.close(out);
+
+	    files.writeDocIDs();
+	    files.writeDocLengths();
+	    files.commit();
+	    modified = false;
+	} catch (IOException e) {
+	    e.printStackTrace();
+	}
+    }
 
 
+    /**
+     *  Reads an index written by writeIndexToDisk. The dictionary and the
+     *  document tables are read right away, while the postings are
+     *  memory-mapped and read on demand.
+     *
+     *  @return true if the index was read, false if there is no saved
+     *  index or it could not be read.
+     */
+    public boolean readIndexFromDisk() {
+	if (!files.exists(DICTIONARY_FILENAME)) {
+	    return false;
+	}
+	try {
+	    ByteBuffer in = files.mapFile(DICTIONARY_FILENAME);
+	    int numberOfTerms = in.getInt();
+	    int[] offsets = new int[numberOfTerms];
+	    for (int termID = 0; termID < numberOfTerms; termID++) {
+		offsets[termID] = in.getInt();
+		if (dictionary.intern(IndexFiles.readString(in)) != termID) {
+		    throw new IOException("The saved dictionary does not match the terms already indexed");
+		}
+	    }
+	    files.readDocIDs();
+	    files.readDocLengths();
+	    postingsFile = files.mapFile(POSTINGS_FILENAME);
+	    postingsOffsets = offsets;
+	    return true;
+	} catch (IOException e) {
+	    e.printStackTrace();
+	    return false;
+	}
+    }
+
+
+    /**
+     *  Returns the saved biwords at @code{offset} in postingsFile, as
+     *  compressed lists that read straight from the memory-mapped file.
+     */
+    private IntMap<PostingsList> readWordMap( int offset ) {
+	ByteBuffer in = postingsFile.duplicate();
+	in.position(offset);
+	int numberOfBiwords = in.getInt();
+	IntMap<PostingsList> wordMap = new IntMap<PostingsList>(numberOfBiwords);
+	for (int j = 0; j < numberOfBiwords; ++j) {
+	    int secondTermID = in.getInt();
+	    int size = in.getInt();
+	    int length = in.getInt();
+	    ByteBuffer bytes = in.slice();
+	    bytes.limit(length);
+	    wordMap.put(secondTermID, new PostingsList(bytes, size));
+	    in.position(in.position() + length);
+	}
+	return wordMap;
+    }
+
+
+    /**
+     *  Saves the index to disk, so that it can be read at the next startup,
+     *  unless it is the index that was read and nothing has been indexed.
+     */
     public void cleanup() {
+	if (modified) {
+	    writeIndexToDisk();
+	}
     }
 }
@@ -10,56 +10,277 @@
 
 package ir;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.LinkedList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.ListIterator;
 import java.util.Comparator;
 import java.util.Collections;
 
+import pagerank.PageRankStore;
+import pagerank.PersonalizedPageRank;
+
 
 /**
  *   Implements an inverted index as a Hashtable from words to PostingsLists.
  */
 public class HashedIndex implements Index {
-    /** The index as a hashtable. */
-    private HashMap<String,PostingsList> index = new HashMap<String,PostingsList>();
+    /** The index as an array from term IDs (see Index.dictionary) to PostingsLists. */
+    private PostingsList[] index = new PostingsList[1024];
     private final int N = 17486; // Number of documents in collection.
-    private final pagerank.PageRank pagerank = new pagerank.PageRank();
+
+    /** The document lengths by docID, built from docLengths for ranked retrieval. */
+    private int[] docLengthTable = null;
+    private int docLengthTableCount = 0;
+
+    /** The PageRank of each document by docID, see pagerankTable(). */
+    private float[] pagerankTable = null;
+    private int pagerankTableCount = 0;
+    private float[] maxPagerankTable = null;
+    private boolean pagerankOrdered = false;
+
+    /** The number of each docID in the link graph, or -1; see pagerankTable(). */
+    private int[] graphNodeTable = null;
+
+    /** The docID of each document in the link graph, or -1; see pagerankTable(). */
+    private int[] docIDByGraphNode = null;
+
+    /**
+     *  If true, tf-idf queries are scored from impact-ordered postings
+     *  (see ImpactSearch), processing at most impactBudget postings. The
+     *  scores are approximate.
+     */
+    public boolean impactOrdered = false;
+    public int impactBudget = Integer.MAX_VALUE;
+
+    /**
+     *  If true, ranked queries only score the documents in the champion
+     *  lists of the query terms, unless there are fewer of those than
+     *  the number of results asked for. The champion list of a term for
+     *  TF_IDF queries is made of the championListSize postings with the
+     *  highest tf / length. COMBINATION queries, which are mostly
+     *  PageRank, have lists of their own where that is blended with
+     *  PageRank by championPagerankWeight; they are only built when
+     *  championLists is set, as they need the PageRank. With a weight of
+     *  0, COMBINATION queries use the TF_IDF lists.
+     */
+    public boolean championLists = false;
+    public int championListSize = 100;
+    public double championPagerankWeight = 0.99;
+
+    /**
+     *  The championListSize and championPagerankWeight that the champion
+     *  lists in postingsFile were built with, the weight 0 if there are
+     *  no COMBINATION lists. Lists built otherwise are built again when
+     *  they are read, see updateChampions().
+     */
+    private int savedChampionListSize = 0;
+    private float savedChampionPagerankWeight = 0;
+
+    /**
+     *  If positive, COMBINATION queries are ranked again with the PageRank
+     *  mixed with the personalized PageRank of their personalizationSeeds
+     *  top results, computed within personalizedBudget milliseconds (see
+     *  personalize()). The personalized PageRank makes up
+     *  personalizationWeight of the mix.
+     */
+    public int personalizedBudget = 0;
+    public int personalizationSeeds = 10;
+    public double personalizationWeight = 0.5;
+
+    /** The impact-ordered postings by term ID, built the first time they are used. */
+    private ImpactList[] impactIndex = new ImpactList[0];
+
+    /** Lists this many times longer than the other are intersected by galloping. */
+    private static final int GALLOPING_RATIO = 16;
+
+    /** The directory where the index is saved, relative to the working directory. */
+    public static final String INDEX_DIRNAME = "index";
+    public static final String DICTIONARY_FILENAME = "dictionary";
+    public static final String POSTINGS_FILENAME = "postings";
+    public static final String DOCIDS_FILENAME = IndexFiles.DOCIDS_FILENAME;
+    public static final String DOCLENGTHS_FILENAME = IndexFiles.DOCLENGTHS_FILENAME;
+    public static final String DOCVECTORS_FILENAME = "docvectors";
+
+    /** The saved index in INDEX_DIRNAME. */
+    private final IndexFiles files = new IndexFiles(INDEX_DIRNAME);
+
+    /**
+     *  True if documents have been indexed since the index was read or
+     *  written, so that cleanup() has something to save.
+     */
+    private boolean modified = false;
+
+    /** 
+     *  The saved postings, memory-mapped, or null if the index has not
+     *  been read from disk. Postings are decoded from here the first
+     *  time a term is looked up.
+     */
+    private ByteBuffer postingsFile = null;
+
+    /** Where the saved postings of each term ID start in postingsFile, or -1. */
+    private int[] postingsOffsets = new int[0];
+
+    /** The saved document vectors, memory-mapped, or null. */
+    private ByteBuffer docVectorsFile = null;
+
+    /**
+     *  The PageRank of each article, opened the first time a ranking
+     *  needs it, so that other searches never read the PageRank files;
+     *  see pagerankStore().
+     */
+    private PageRankStore pagerankStore = null;
+
+    /** The personalized PageRank over the link graph, see loadLinkGraph(). */
+    private PersonalizedPageRank personalized = null;
 
     /**
      *  Inserts this token in the index.
      */
     public void insert( String token, int docID, int offset ) {
-	if (documentVectors.get(docID) == null)
-	    documentVectors.put(docID, new HashMap<String, Integer>());
-	if (!documentVectors.get(docID).containsKey(token)) {
-	    documentVectors.get(docID).put(token, 1);
-	} else {
-	    documentVectors.get(docID).put(token, documentVectors.get(docID).get(token) + 1);
-	}
+	insert(dictionary.intern(token), docID, offset);
+    }
 
-        if (!("".equals(token))) {
-            PostingsList pl = index.get(token);
 
+    /**
+     *  Inserts the term with this term ID in the index.
+     */
+    public void insert( int termID, int docID, int offset ) {
+	modified = true;
+	TermCounts documentVector = documentVectors.get(docID);
+	if (documentVector == null) {
+	    documentVector = new TermCounts();
+	    documentVectors.put(docID, documentVector);
+	}
+	documentVector.add(termID);
+
+        if (dictionary.term(termID).length() > 0) {
+            PostingsList pl = getPostings(termID);
             if (pl == null) {
                 pl = new PostingsList();
+                setPostings(termID, pl);
             }
             pl.add(docID, offset);
-            index.put(token, pl);
-
         } else
             System.out.println("Empty token");
     }
 
 
+    /**
+     *  Compresses all postings lists once all documents are inserted.
+     */
+    public void finishIndexing() {
+	int[] lengths = docLengthTable();
+	float[] ranks = championLists && championPagerankWeight > 0 ? pagerankTable() : null;
+	impactIndex = new ImpactList[0];
+	for (int termID = 0; termID < index.length; termID++) {
+	    if (index[termID] != null) {
+		index[termID].compress();
+		index[termID].computeBlockMaxima(lengths);
+		computeChampions(index[termID], lengths, ranks);
+	    }
+	}
+    }
+
+
+    /**
+     *  Sets the champion lists of a postings list.
+     *
+     *  @param ranks The PageRank of each document, or null if there are
+     *  to be no COMBINATION champion lists.
+     */
+    private void computeChampions(PostingsList pl, int[] lengths, float[] ranks) {
+	pl.setChampions(champions(pl, lengths, null));
+	pl.setPagerankChampions(ranks == null ? null : champions(pl, lengths, ranks));
+    }
+
+
+    /**
+     *  Returns the champion list of a postings list, or null if it has
+     *  no more than championListSize postings.
+     *
+     *  @param ranks The PageRank of each document to blend in, or null.
+     */
+    private int[] champions(PostingsList pl, int[] lengths, float[] ranks) {
+	if (pl.size() <= championListSize)
+	    return null;
+	ResultHeap heap = new ResultHeap(championListSize);
+	PostingsIterator it = pl.iterator();
+	while (it.next()) {
+	    double weight = (double) it.tf() / lengths[it.docID()];
+	    if (ranks != null)
+		weight = (1 - championPagerankWeight) * weight + championPagerankWeight * ranks[it.docID()];
+	    heap.offer(it.docID(), weight);
+	}
+	PostingsList top = heap.toPostingsList();
+	int[] champions = new int[top.size()];
+	for (int i = 0; i < champions.length; i++)
+	    champions[i] = top.docID(i);
+	Arrays.sort(champions);
+	return champions;
+    }
+
+
+    /**
+     *  Builds the champion lists of a postings list read from disk again
+     *  if they were saved for another championListSize, or the
+     *  COMBINATION list for another championPagerankWeight.
+     */
+    private void updateChampions(PostingsList pl) {
+	boolean sizeChanged = savedChampionListSize != championListSize;
+	if (sizeChanged)
+	    pl.setChampions(champions(pl, docLengthTable(), null));
+	if (championLists && championPagerankWeight > 0 &&
+	    (sizeChanged || savedChampionPagerankWeight != (float) championPagerankWeight))
+	    pl.setPagerankChampions(champions(pl, docLengthTable(), pagerankTable()));
+    }
+
+
+    /**
+     *  Merges a partial index built by an indexing thread into this index.
+     *  All docIDs in the partial index must be larger than the docIDs
+     *  already in the index, so its postings can simply be appended.
+     */
+    public void merge( PartialIndex partial ) {
+	modified = true;
+	int[] termIDs = new int[partial.dictionary.size()];
+	for (int localID = 0; localID < termIDs.length; localID++) {
+	    int termID = dictionary.intern(partial.dictionary.term(localID));
+	    termIDs[localID] = termID;
+	    PostingsList partialList = localID < partial.index.length ? partial.index[localID] : null;
+	    if (partialList == null)
+		continue;
+	    PostingsList pl = getPostings(termID);
+	    if (pl == null)
+		setPostings(termID, partialList);
+	    else
+		pl.addAll(partialList);
+	}
+	for (int i = 0; i < partial.documentVectors.size(); i++)
+	    partial.documentVectors.value(i).renumber(termIDs);
+	documentVectors.putAll(partial.documentVectors);
+	docIDs.putAll(partial.docIDs);
+	docLengths.putAll(partial.docLengths);
+    }
+
+
     /**
      *  Returns all the words in the index.
      */
     public Iterator<String> getDictionary() {
-        return index.keySet().iterator();
+        ArrayList<String> terms = new ArrayList<String>();
+        for (int termID = 0; termID < dictionary.size(); termID++) {
+            if ((termID < index.length && index[termID] != null) ||
+                (termID < postingsOffsets.length && postingsOffsets[termID] >= 0))
+                terms.add(dictionary.term(termID));
+        }
+        return terms.iterator();
     }
 
 
@@ -68,7 +289,32 @@ public class HashedIndex implements Index {
      *  if the term is not in the index.
      */
     public PostingsList getPostings( String token ) {
-        return index.get(token);
+        int termID = dictionary.lookup(token);
+        if (termID < 0)
+            return null;
+        return getPostings(termID);
+    }
+
+
+    /**
+     *  Returns the postings for the term with this term ID, or null
+     *  if the term is not in the index.
+     */
+    public PostingsList getPostings( int termID ) {
+        PostingsList pl = termID < index.length ? index[termID] : null;
+        if (pl == null && termID < postingsOffsets.length && postingsOffsets[termID] >= 0) {
+            pl = readPostings(postingsOffsets[termID]);
+            updateChampions(pl);
+            setPostings(termID, pl);
+        }
+        return pl;
+    }
+
+
+    private void setPostings( int termID, PostingsList pl ) {
+        if (termID >= index.length)
+            index = Arrays.copyOf(index, Math.max(2 * index.length, termID + 1));
+        index[termID] = pl;
     }
 
 
@@ -86,29 +332,35 @@ public class HashedIndex implements Index {
 	switch (rankingType) {
 	    case Index.TF_IDF:
 		ranked = cosineScore(query);
-		ranked.sort();
-		return ranked;
+		break;
 	    case Index.PAGERANK:
-		ranked = pageranks(query.terms);
-		ranked.sort();
+		ranked = pageranks(query);
 		break;
 	    case Index.COMBINATION:
-		ranked = combination(query.terms);
-		ranked.sort();
+		ranked = combination(query);
 		break;
 	}
 	return ranked;
     }
 
+    /**
+     *  Returns the query.maxResults documents with the best tf-idf scores.
+     *  Unless impactOrdered is set, the postings are scored term by term
+     *  into a dense accumulator indexed by docID.
+     */
     public PostingsList cosineScore(Query query) {
 	long startTime = System.nanoTime();
 
-        PostingsList ret = new PostingsList();
+	int[] lengths = docLengthTable();
+	ArrayList<PostingsList> lists = new ArrayList<PostingsList>();
+	ArrayList<ImpactList> impactLists = new ArrayList<ImpactList>();
+	ArrayList<Double> idfs = new ArrayList<Double>();
+	ArrayList<Double> queryWeights = new ArrayList<Double>();
 
 	int n = query.terms.size();
 	for (int i = 0; i < query.terms.size(); ++i) {
 	    String t = query.terms.get(i);
-            PostingsList termList = index.get(t);
+            PostingsList termList = getPostings(t);
 	    // Just continue if word doesn't exist.
 	    if (termList == null)
 		continue;
@@ -120,85 +372,476 @@ public class HashedIndex implements Index {
 	    if (idf < 4)
 		continue;
             double tf_idfQuery = termWeight * tf * idf / n; 
-            for (int k = 0; k < termList.size(); k++) {
-                PostingsEntry pe = termList.get(k);
-                int d = pe.docID;
-                // Num occurances in doc * inv num docs that occ / doc len
-                double tf_idfDoc = pe.tf() * idf / docLengths.get("" + d);
-                pe.score = tf_idfDoc * tf_idfQuery;
-                ret.add(pe);
-            }
+            lists.add(termList);
+            if (impactOrdered)
+                impactLists.add(getImpactList(dictionary.lookup(t), lengths));
+            idfs.add(idf);
+            queryWeights.add(tf_idfQuery);
+        }
+
+        PostingsList ret;
+        if (impactOrdered) {
+            double[] weightArray = new double[lists.size()];
+            for (int i = 0; i < lists.size(); i++)
+                weightArray[i] = queryWeights.get(i);
+            ret = new ImpactSearch(lengths.length).search(impactLists.toArray(new ImpactList[0]), weightArray,
+                                                          query.maxResults, impactBudget);
+        } else {
+            ret = null;
+            if (championLists)
+                ret = scoreTermAtATime(lists, idfs, queryWeights, lengths, query.maxResults, true);
+            if (ret == null)
+                ret = scoreTermAtATime(lists, idfs, queryWeights, lengths, query.maxResults, false);
         }
 	long endTime = System.nanoTime();
 	System.out.printf("Search took %dms\n", (endTime - startTime) / 1000000);
         return ret;
     }
 
-    private PostingsList pageranks(LinkedList<String> terms) {
-        PostingsList ret = new PostingsList();
+    /**
+     *  Scores every posting of the lists term by term into a dense
+     *  accumulator indexed by docID, and returns the k best documents.
+     *  With championsOnly, only the postings in the champion lists are
+     *  scored, and null is returned if they have fewer than k documents.
+     */
+    private PostingsList scoreTermAtATime(ArrayList<PostingsList> lists, ArrayList<Double> idfs,
+                                          ArrayList<Double> queryWeights, int[] lengths, int k,
+                                          boolean championsOnly) {
+        float[] scores = new float[lengths.length];
+        boolean[] seen = new boolean[lengths.length];
+        int candidates = 0;
+        for (int i = 0; i < lists.size(); i++) {
+            double idf = idfs.get(i);
+            double tf_idfQuery = queryWeights.get(i);
+            int[] champions = championsOnly ? lists.get(i).champions() : null;
+            PostingsIterator it = lists.get(i).iterator();
+            int c = 0;
+            // Go through all postings, or look up the champions one by one
+            while (champions == null ? it.next() : c < champions.length && it.advance(champions[c++])) {
+                int d = it.docID();
+                // Num occurances in doc * inv num docs that occ / doc len
+                double tf_idfDoc = it.tf() * idf / lengths[d];
+                scores[d] += tf_idfDoc * tf_idfQuery;
+                if (!seen[d]) {
+                    seen[d] = true;
+                    candidates++;
+                }
+            }
+        }
+        if (championsOnly && candidates < k)
+            return null;
+        return ResultHeap.topResults(scores, seen, k);
+    }
+
+    private PostingsList pageranks(Query query) {
+	if (pagerankOrdered())
+	    return staticScoreSearch(query, false);
+	float[] ranks = pagerankTable();
+	float[] scores = new float[ranks.length];
+	boolean[] seen = new boolean[ranks.length];
 
-        for (String t : terms) {
-            PostingsList termList = index.get(t);
+        for (String t : query.terms) {
+            PostingsList termList = getPostings(t);
 	    // Just continue if word doesn't exist.
 	    if (termList == null)
 		continue;
-            for (int k = 0; k < termList.size(); k++) {
-                PostingsEntry pe = termList.get(k);
-                pe.score = pagerank(pe.docID);
-                ret.add(pe);
+            PostingsIterator it = termList.iterator();
+            while (it.next()) {
+                int d = it.docID();
+                scores[d] += ranks[d];
+                seen[d] = true;
             }
         }
-        return ret;
+        return ResultHeap.topResults(scores, seen, query.maxResults);
     }
 
-    private double pagerank(int docID) {
-	String filename = docIDs.get(""+docID);
-	return pagerank.getPageRank(filename);
+    /**
+     *  Scores the documents of the query terms in docID order, by their
+     *  PageRank or, withCosine, as combination() does. The search stops
+     *  as soon as no later document can beat the k-th best found so far:
+     *  the best a document can score is bounded by the largest PageRank
+     *  from its docID on (maxPagerankTable) plus the block maxima of the
+     *  terms. It is only used when docIDs were handed out in order of
+     *  decreasing PageRank (Indexer.setPagerankOrder), as otherwise the
+     *  bound stays high and the term-at-a-time loops are faster. The scores are
+     *  added up like in the term-at-a-time loops, so the results are the
+     *  same as when every posting is scored.
+     */
+    private PostingsList staticScoreSearch(Query query, boolean withCosine) {
+	int[] lengths = docLengthTable();
+	float[] ranks = pagerankTable();
+	float[] maxRanks = maxPagerankTable();
+	double alpha = 0.00005;
+
+	int n = query.terms.size();
+	ArrayList<PostingsIterator> cursors = new ArrayList<PostingsIterator>();
+	ArrayList<Double> idfs = new ArrayList<Double>();
+	double cosineBound = 0;
+	for (String t : query.terms) {
+	    PostingsList termList = getPostings(t);
+	    // Just continue if word doesn't exist.
+	    if (termList == null)
+		continue;
+	    PostingsIterator it = termList.iterator();
+	    if (!it.next())
+		continue;
+	    cursors.add(it);
+	    int tf = 1;
+	    double idf = termList.idf();
+	    idfs.add(idf);
+	    if (withCosine) {
+		float[] maxima = termList.blockMaxima();
+		float maxImpact = maxima == null ? Float.POSITIVE_INFINITY : 0;
+		for (int i = 0; maxima != null && i < maxima.length; i++)
+		    maxImpact = Math.max(maxImpact, maxima[i]);
+		cosineBound += alpha * (maxImpact * idf * (tf * idf / n));
+	    }
+	}
+	int m = cursors.size();
+	boolean[] done = new boolean[m];
+
+	ResultHeap heap = new ResultHeap(query.maxResults);
+	while (true) {
+	    int d = Integer.MAX_VALUE;
+	    for (int i = 0; i < m; i++) {
+		if (!done[i])
+		    d = Math.min(d, cursors.get(i).docID());
+	    }
+	    if (d == Integer.MAX_VALUE)
+		break;
+	    double rankBound = (withCosine ? 1 - alpha : 1) * maxRanks[d];
+	    double bound = cosineBound + Math.max(m * rankBound, rankBound);
+	    // Leave some room for the rounding of the float sums
+	    if (bound + Math.abs(bound) * 1e-6 * (m + 2) <= heap.threshold())
+		break;
+	    float score = 0;
+	    for (int i = 0; i < m; i++) {
+		PostingsIterator it = cursors.get(i);
+		if (done[i] || it.docID() != d)
+		    continue;
+		if (withCosine) {
+		    int tf = 1;
+		    double idf = idfs.get(i);
+		    double tf_idfQuery = tf * idf / n;
+		    double tf_idfDoc = it.tf() * idf / lengths[d];
+		    double cosine = tf_idfDoc * tf_idfQuery;
+		    double pagerank = ranks[d];
+		    score += alpha * cosine + (1 - alpha) * pagerank;
+		} else {
+		    score += ranks[d];
+		}
+		done[i] = !it.next();
+	    }
+	    heap.offer(d, score);
+	}
+	return heap.toPostingsList();
     }
 
-    public PostingsList combination(LinkedList<String> terms) {
-        PostingsList ret = new PostingsList();
+    /**
+     *  Returns the PageRank of a document, given its file path.
+     */
+    public double getPageRank(String filepath) {
+	PageRankStore store = pagerankStore();
+	return store == null ? -1 : store.getPageRank(filepath);
+    }
 
-        for (String t : terms) {
-            PostingsList termList = index.get(t);
+    /**
+     *  Returns the PageRank store, opening it the first time, or null if
+     *  it cannot be opened.
+     */
+    private synchronized PageRankStore pagerankStore() {
+	if (pagerankStore == null) {
+	    try {
+		pagerankStore = PageRankStore.open();
+	    } catch (IOException e) {
+		e.printStackTrace();
+	    }
+	}
+	return pagerankStore;
+    }
+
+    /**
+     *  Returns the PageRank of every document in an array indexed by docID.
+     *  The scores are joined to the docIDs by file name the first time
+     *  they are needed, and again if documents have been added since,
+     *  together with graphNodeTable and docIDByGraphNode.
+     */
+    private float[] pagerankTable() {
+	if (pagerankTable == null || pagerankTableCount != docIDs.size()) {
+	    int max = -1;
+	    for (String docID : docIDs.keySet())
+		max = Math.max(max, Integer.parseInt(docID));
+	    float[] table = new float[Math.max(max + 1, docLengthTable().length)];
+	    int[] nodes = new int[table.length];
+	    Arrays.fill(nodes, -1);
+	    PageRankStore store = pagerankStore();
+	    for (String docID : docIDs.keySet()) {
+		int d = Integer.parseInt(docID);
+		table[d] = store == null ? -1 : store.getPageRank(docIDs.get(docID));
+		nodes[d] = store == null ? -1 : store.getDocNumber(docIDs.get(docID));
+	    }
+	    int numberOfNodes = 0;
+	    for (int node : nodes)
+		numberOfNodes = Math.max(numberOfNodes, node + 1);
+	    int[] docIDByNode = new int[numberOfNodes];
+	    Arrays.fill(docIDByNode, -1);
+	    for (int d = 0; d < nodes.length; d++)
+		if (nodes[d] >= 0)
+		    docIDByNode[nodes[d]] = d;
+	    docIDByGraphNode = docIDByNode;
+	    graphNodeTable = nodes;
+	    pagerankTable = table;
+	    pagerankTableCount = docIDs.size();
+	    maxPagerankTable = new float[table.length + 1];
+	    maxPagerankTable[table.length] = Float.NEGATIVE_INFINITY;
+	    pagerankOrdered = true;
+	    for (int d = table.length - 1; d >= 0; d--) {
+		maxPagerankTable[d] = Math.max(table[d], maxPagerankTable[d + 1]);
+		if (table[d] < maxPagerankTable[d + 1])
+		    pagerankOrdered = false;
+	    }
+	}
+	return pagerankTable;
+    }
+
+    /**
+     *  Returns, for every docID, the largest PageRank of the documents
+     *  with that docID or a larger one.
+     */
+    private float[] maxPagerankTable() {
+	pagerankTable();
+	return maxPagerankTable;
+    }
+
+    /**
+     *  Returns true if the PageRank of the documents never increases with
+     *  their docID.
+     */
+    private boolean pagerankOrdered() {
+	pagerankTable();
+	return pagerankOrdered;
+    }
+
+    public PostingsList combination(Query query) {
+	PostingsList ret = null;
+	if (championLists)
+	    ret = combination(query, true, pagerankTable());
+	if (ret == null && pagerankOrdered())
+	    ret = staticScoreSearch(query, true);
+	if (ret == null)
+	    ret = combination(query, false, pagerankTable());
+	if (personalizedBudget > 0)
+	    ret = personalize(query, ret);
+	return ret;
+    }
+
+    /**
+     *  Ranks the query again, with the PageRank of each document mixed
+     *  with its personalized PageRank from the top results, which stands
+     *  for the part of the link graph the query is about. The personalized
+     *  PageRank is cut short when personalizedBudget runs out, so the
+     *  search takes at most that much longer.
+     *
+     *  The PageRank adds up to 1 over all documents, but the personalized
+     *  PageRank over the few near the seeds, so before they are mixed the
+     *  personalized PageRank is scaled to have the same largest value as
+     *  the PageRank over the documents that have a query term.
+     */
+    private PostingsList personalize(Query query, PostingsList results) {
+	long deadline = System.nanoTime() + personalizedBudget * 1000000L;
+	PersonalizedPageRank personalized = loadLinkGraph();
+	if (personalized == null)
+	    return results;
+	float[] ranks = pagerankTable();
+	int[] graphNodes = graphNodeTable;
+	int[] docIDByNode = docIDByGraphNode;
+	int[] seeds = new int[Math.min(personalizationSeeds, results.size())];
+	int numberOfSeeds = 0;
+	for (int i = 0; i < seeds.length; i++) {
+	    int node = graphNodes[results.docID(i)];
+	    if (node >= 0)
+		seeds[numberOfSeeds++] = node;
+	}
+	if (numberOfSeeds == 0)
+	    return results;
+
+	float[] personal = new float[ranks.length];
+	synchronized (personalized) {
+	    int touched = personalized.compute(Arrays.copyOf(seeds, numberOfSeeds), deadline);
+	    double[] personalRanks = personalized.ranks();
+	    int[] nodes = personalized.touched();
+	    for (int i = 0; i < touched; i++) {
+		int d = nodes[i] < docIDByNode.length ? docIDByNode[nodes[i]] : -1;
+		if (d >= 0)
+		    personal[d] = (float) personalRanks[nodes[i]];
+	    }
+	}
+
+	float maxRank = 0;
+	float maxPersonal = 0;
+	for (String t : query.terms) {
+	    PostingsList termList = getPostings(t);
 	    if (termList == null)
 		continue;
-            int n = terms.size();
+	    PostingsIterator it = termList.iterator();
+	    while (it.next()) {
+		int d = it.docID();
+		maxRank = Math.max(maxRank, ranks[d]);
+		maxPersonal = Math.max(maxPersonal, personal[d]);
+	    }
+	}
+	if (maxPersonal == 0)
+	    return results;
+	double scale = maxRank / maxPersonal;
+	float[] mixed = new float[ranks.length];
+	for (int d = 0; d < ranks.length; d++) {
+	    // A document that is not in the link graph has the PageRank -1
+	    double rank = Math.max(ranks[d], 0);
+	    mixed[d] = (float) ((1 - personalizationWeight) * rank + personalizationWeight * scale * personal[d]);
+	}
+	return combination(query, false, mixed);
+    }
+
+    /**
+     *  Reads the link graph for personalize(), unless it has been read,
+     *  and returns its personalized PageRank, or null if it cannot be
+     *  read. SearchGUI calls it when personalization is turned on, so
+     *  that no query waits for it.
+     */
+    public synchronized PersonalizedPageRank loadLinkGraph() {
+	if (personalized == null) {
+	    try {
+		personalized = PersonalizedPageRank.load();
+	    } catch (IOException e) {
+		e.printStackTrace();
+	    }
+	}
+	return personalized;
+    }
+
+    /**
+     *  Scores the documents by tf-idf and the PageRank in @code{ranks}.
+     *  With championsOnly, only scores the documents in the champion
+     *  lists, and returns null if there are fewer of them than
+     *  query.maxResults.
+     */
+    private PostingsList combination(Query query, boolean championsOnly, float[] ranks) {
+	int[] lengths = docLengthTable();
+	float[] scores = new float[ranks.length];
+	boolean[] seen = new boolean[ranks.length];
+	int candidates = 0;
+
+        for (String t : query.terms) {
+            PostingsList termList = getPostings(t);
+	    if (termList == null)
+		continue;
+            int n = query.terms.size();
             int tf = 1;
             double idf = termList.idf(); 
             double tf_idfQuery = tf * idf / n; 
-            for (int k = 0; k < termList.size(); k++) {
-                PostingsEntry pe = termList.get(k);
-                int d = pe.docID;
-                double tf_idfDoc = pe.tf() * termList.idf() / docLengths.get("" + d);
+            int[] champions = null;
+            if (championsOnly)
+                champions = championPagerankWeight > 0 ? termList.pagerankChampions() : termList.champions();
+            PostingsIterator it = termList.iterator();
+            int c = 0;
+            while (champions == null ? it.next() : c < champions.length && it.advance(champions[c++])) {
+                int d = it.docID();
+                double tf_idfDoc = it.tf() * idf / lengths[d];
 		double cosine = tf_idfDoc * tf_idfQuery;
-		double pagerank = pagerank(pe.docID);
+		double pagerank = ranks[d];
 		double alpha = 0.00005;
-		pe.score = alpha * cosine + (1 - alpha) * pagerank;
-                ret.add(pe);
+		scores[d] += alpha * cosine + (1 - alpha) * pagerank;
+                if (!seen[d]) {
+                    seen[d] = true;
+                    candidates++;
+                }
             }
         }
-        return ret;
+        if (championsOnly && candidates < query.maxResults)
+            return null;
+        return ResultHeap.topResults(scores, seen, query.maxResults);
+    }
+
+    /**
+     *  Returns the impact-ordered postings of a term, building them from
+     *  its postings list the first time.
+     */
+    private ImpactList getImpactList(int termID, int[] lengths) {
+	if (termID >= impactIndex.length)
+	    impactIndex = Arrays.copyOf(impactIndex, Math.max(termID + 1, dictionary.size()));
+	if (impactIndex[termID] == null)
+	    impactIndex[termID] = new ImpactList(getPostings(termID), lengths);
+	return impactIndex[termID];
+    }
+
+    /**
+     *  Returns the length of every document in an array indexed by docID,
+     *  which is rebuilt from docLengths whenever documents have been added.
+     */
+    private int[] docLengthTable() {
+	if (docLengthTable == null || docLengthTableCount != docLengths.size()) {
+	    int max = -1;
+	    for (String docID : docLengths.keySet())
+		max = Math.max(max, Integer.parseInt(docID));
+	    int[] table = new int[max + 1];
+	    for (String docID : docLengths.keySet())
+		table[Integer.parseInt(docID)] = docLengths.get(docID);
+	    docLengthTable = table;
+	    docLengthTableCount = docLengths.size();
+	}
+	return docLengthTable;
     }
 
+    /**
+     *  Intersects two postings lists, choosing the algorithm by how much
+     *  their lengths differ. When one list is at least GALLOPING_RATIO
+     *  times longer, each docID of the short list is looked up in the
+     *  long one by galloping over its skip table; otherwise the lists
+     *  are merged.
+     */
     public PostingsList intersect(PostingsList list1, PostingsList list2) {
+        PostingsList shorter = list1.size() <= list2.size() ? list1 : list2;
+        PostingsList longer = shorter == list1 ? list2 : list1;
+        if ((long) shorter.size() * GALLOPING_RATIO <= longer.size())
+            return gallopingIntersect(shorter, longer);
+        return mergeIntersect(list1, list2);
+    }
+
+    /**
+     *  Intersects a short list with a much longer one by galloping
+     *  ahead in the long list for every docID of the short list.
+     */
+    public PostingsList gallopingIntersect(PostingsList shorter, PostingsList longer) {
         PostingsList result = new PostingsList();
+        PostingsIterator s = shorter.iterator();
+        PostingsIterator l = longer.iterator();
+        while (s.next()) {
+            if (!l.advance(s.docID()))
+                break;
+            if (l.docID() == s.docID())
+                result.add(s.docID());
+        }
+        return result;
+    }
 
-        int i = 0;
-        int j = 0;
-        while (i < list1.size() && j < list2.size()) {
-            PostingsEntry p1 = list1.get(i);
-            PostingsEntry p2 = list2.get(j);
-
-            if (p1.docID == p2.docID) {
-                result.add(p1.docID);
-                i++;
-                j++;
-            } else if (p1.docID < p2.docID) {
-                i++;
-            } else {
-                j++;
-            }
+    /**
+     *  Intersects two lists of similar length by merging them, decoding
+     *  compressed postings as it goes. Where one list lags behind the
+     *  other, advance() can still skip whole blocks of it.
+     */
+    public PostingsList mergeIntersect(PostingsList list1, PostingsList list2) {
+        PostingsList result = new PostingsList();
+        PostingsIterator p1 = list1.iterator();
+        PostingsIterator p2 = list2.iterator();
+        boolean more = p1.next() && p2.next();
+        while (more) {
+            if (p1.docID() == p2.docID()) {
+                result.add(p1.docID());
+                more = p1.next() && p2.next();
+            } else if (p1.docID() < p2.docID())
+                more = p1.advance(p2.docID());
+            else
+                more = p2.advance(p1.docID());
         }
         return result;
     }
@@ -244,27 +887,25 @@ public class HashedIndex implements Index {
     // 1.3
     public PostingsList positionalIntersect(PostingsList list1, PostingsList list2) {
         PostingsList answer = new PostingsList();
-        int i = 0;
-        int j = 0;
         int entry1currentOffset = 0;
         int entry2currentOffset = 0;
-        while (i < list1.size() && j < list2.size()) {
-            PostingsEntry p1 = list1.get(i);
-            PostingsEntry p2 = list2.get(j);
-
+        PostingsIterator p1 = list1.iterator();
+        PostingsIterator p2 = list2.iterator();
+        boolean more = p1.next() && p2.next();
+        while (more) {
             // If the documents are the same
-            if (p1.docID == p2.docID) {
+            if (p1.docID() == p2.docID()) {
                 List<Integer> l = new LinkedList<Integer>();
                 
                 // Find offsets of the words in the document 
-                ArrayList<Integer> entry1offsets = p1.positions;
-                ArrayList<Integer> entry2offsets = p2.positions;
+                int[] entry1offsets = p1.positions();
+                int[] entry2offsets = p2.positions();
 
                 // The second word has to come after the first word
-                for (int k = 0; k < entry1offsets.size(); k++) {
-                    entry1currentOffset = entry1offsets.get(k);
-                    for (int m = 0; m < entry2offsets.size(); m++) {
-                        entry2currentOffset = entry2offsets.get(m);
+                for (int k = 0; k < p1.tf(); k++) {
+                    entry1currentOffset = entry1offsets[k];
+                    for (int m = 0; m < p2.tf(); m++) {
+                        entry2currentOffset = entry2offsets[m];
 
                         // If the second word is right after the first word, we found a match
                         if (entry2currentOffset - entry1currentOffset == 1) {
@@ -279,27 +920,257 @@ public class HashedIndex implements Index {
                         while (!l.isEmpty() && Math.abs(l.get(0) - entry1currentOffset) > 1)
                             l.remove(0);
                         for (int ps : l) {
-                            answer.add(p1.docID, ps);
+                            answer.add(p1.docID(), ps);
                         }
                     }
                 }
-                i++;
-                j++;
-            } else if (p1.docID < p2.docID) {
-                i++;
+                more = p1.next() && p2.next();
+            } else if (p1.docID() < p2.docID()) {
+                more = p1.advance(p2.docID());
             } else
-                j++;
+                more = p2.advance(p1.docID());
         }
         return answer;
     }
 
-    public void writeFilePaths() {}
-    public void getFilePaths() {}
-    public void writeIndexToDisk() {}
+    /**
+     *  Returns the document vector (term frequencies) of a document.
+     */
+    public TermCounts getDocumentVector( int docID ) {
+	TermCounts documentVector = documentVectors.get(docID);
+	if (documentVector == null && docVectorsFile != null) {
+	    documentVector = readDocumentVector(docID);
+	    if (documentVector != null)
+		documentVectors.put(docID, documentVector);
+	}
+	return documentVector;
+    }
+
+
+    /**
+     *  Writes the index to INDEX_DIRNAME, as a new version of the files
+     *  that replaces the old one as a whole (see IndexFiles). Writing
+     *  fails if a file would be larger than 2 GB.
+     *
+     *  The files are:
+     *
+     *  postings:   for each term, the number of postings and the number
+     *              of bytes of postings, followed by the postings as
+     *              compressed by PostingsList.compress(), then
+     *              PostingsList.blockMaxima() as floats, and last the
+     *              number of champions, or -1, and their docIDs, first
+     *              for TF_IDF and then for COMBINATION queries.
+     *  dictionary: championListSize and the championPagerankWeight of
+     *              the COMBINATION champion lists as a float, 0 if there
+     *              are none; the number of terms, followed by (postings
+     *              offset or -1, term) for each term ID.
+     *  docids:     the number of documents, followed by (docID, path).
+     *  doclengths: the number of documents, followed by (docID, length).
+     *  docvectors: for each document, the number of terms followed by
+     *              (termID, tf); then a table with the offset of each
+     *              docID, or -1, and finally the offset of that table.
+     */
+    public void writeIndexToDisk() {
+	try {
+	    files.create();
+	    int[] offsets = new int[dictionary.size()];
+	    DataOutputStream out = files.createFile(POSTINGS_FILENAME);
+	    for (int termID = 0; termID < dictionary.size(); termID++) {
+		PostingsList pl = getPostings(termID);
+		offsets[termID] = pl == null ? -1 : IndexFiles.offset(out);
+		if (pl != null)
+		    writePostings(out, pl);
+	    }
+	    IndexFiles.close(out);
+
+	    out = files.createFile(DICTIONARY_FILENAME);
+	    out.writeInt(championListSize);
+	    out.writeFloat(championLists ? (float) championPagerankWeight : 0);
+	    out.writeInt(dictionary.size());
+	    for (int termID = 0; termID < dictionary.size(); termID++) {
+		out.writeInt(offsets[termID]);
+		IndexFiles.writeString(out, dictionary.term(termID));
+	    }
+	    IndexFiles.close(out);
+
+	    writeFilePaths();
+	    files.writeDocLengths();
+
+	    int numberOfDocs = 0;
+	    for (String docID : docIDs.keySet())
+		numberOfDocs = Math.max(numberOfDocs, Integer.parseInt(docID) + 1);
+	    int[] docOffsets = new int[numberOfDocs];
+	    out = files.createFile(DOCVECTORS_FILENAME);
+	    for (int docID = 0; docID < numberOfDocs; docID++) {
+		TermCounts documentVector = getDocumentVector(docID);
+		docOffsets[docID] = documentVector == null ? -1 : IndexFiles.offset(out);
+		if (documentVector == null)
+		    continue;
+		out.writeInt(documentVector.size());
+		for (int i = 0; i < documentVector.size(); i++) {
+		    out.writeInt(documentVector.termID(i));
+		    out.writeInt(documentVector.count(i));
+		}
+	    }
+	    int tableOffset = IndexFiles.offset(out);
+	    out.writeInt(numberOfDocs);
+	    for (int docID = 0; docID < numberOfDocs; docID++)
+		out.writeInt(docOffsets[docID]);
+	    out.writeInt(tableOffset);
+	    IndexFiles.close(out);
+
+	    files.commit();
+	    modified = false;
+	} catch (IOException e) {
+	    e.printStackTrace();
+	}
+    }
+
+
+    /**
+     *  Reads an index written by writeIndexToDisk. The dictionary and the
+     *  document tables are read right away, while the postings and the
+     *  document vectors are memory-mapped and decoded on demand.
+     *
+     *  @return true if the index was read, false if there is no saved
+     *  index or it could not be read.
+     */
+    public boolean readIndexFromDisk() {
+	if (!files.exists(DICTIONARY_FILENAME))
+	    return false;
+	try {
+	    long startTime = System.nanoTime();
+	    ByteBuffer in = files.mapFile(DICTIONARY_FILENAME);
+	    savedChampionListSize = in.getInt();
+	    savedChampionPagerankWeight = in.getFloat();
+	    int numberOfTerms = in.getInt();
+	    int[] offsets = new int[numberOfTerms];
+	    for (int termID = 0; termID < numberOfTerms; termID++) {
+		offsets[termID] = in.getInt();
+		if (dictionary.intern(IndexFiles.readString(in)) != termID)
+		    throw new IOException("The saved dictionary does not match the terms already indexed");
+	    }
+
+	    getFilePaths();
+	    files.readDocLengths();
+
+	    postingsFile = files.mapFile(POSTINGS_FILENAME);
+	    docVectorsFile = files.mapFile(DOCVECTORS_FILENAME);
+	    postingsOffsets = offsets;
+	    long endTime = System.nanoTime();
+	    System.err.println("Read the index in " + (endTime - startTime) / 1000000 + " ms");
+	    return true;
+	} catch (IOException e) {
+	    e.printStackTrace();
+	    return false;
+	}
+    }
+
+
+    /**
+     *  Writes the docID to file path table.
+     */
+    public void writeFilePaths() throws IOException {
+	files.writeDocIDs();
+    }
+
+
+    /**
+     *  Reads the docID to file path table.
+     */
+    public void getFilePaths() throws IOException {
+	files.readDocIDs();
+    }
+
+
+    private void writePostings(DataOutputStream out, PostingsList pl) throws IOException {
+	pl.compress();
+	if (pl.blockMaxima() == null)
+	    pl.computeBlockMaxima(docLengthTable());
+	ByteBuffer bytes = pl.compressed();
+	out.writeInt(pl.size());
+	out.writeInt(bytes.remaining());
+	while (bytes.hasRemaining())
+	    out.write(bytes.get());
+	for (float max : pl.blockMaxima())
+	    out.writeFloat(max);
+	writeChampions(out, pl.champions());
+	writeChampions(out, pl.pagerankChampions());
+    }
+
+
+    private static void writeChampions(DataOutputStream out, int[] champions) throws IOException {
+	out.writeInt(champions == null ? -1 : champions.length);
+	for (int i = 0; champions != null && i < champions.length; i++)
+	    out.writeInt(champions[i]);
+    }
+
+
+    /**
+     *  Returns the saved postings at @code{offset} as a compressed list
+     *  that reads straight from the memory-mapped file.
+     */
+    private PostingsList readPostings(int offset) {
+	ByteBuffer in = postingsFile.duplicate();
+	in.position(offset);
+	int size = in.getInt();
+	int length = in.getInt();
+	int end = in.position() + length;
+	in.limit(end);
+	PostingsList pl = new PostingsList(in.slice(), size);
+	float[] maxima = new float[pl.blocks()];
+	for (int i = 0; i < maxima.length; i++)
+	    maxima[i] = postingsFile.getFloat(end + 4 * i);
+	pl.setBlockMaxima(maxima);
+	int championsStart = end + 4 * maxima.length;
+	int[] champions = readChampions(championsStart);
+	pl.setChampions(champions);
+	championsStart += 4 + (champions == null ? 0 : 4 * champions.length);
+	pl.setPagerankChampions(readChampions(championsStart));
+	return pl;
+    }
+
+
+    /**
+     *  Returns the champion list saved at @code{offset} in postingsFile,
+     *  or null.
+     */
+    private int[] readChampions(int offset) {
+	int numberOfChampions = postingsFile.getInt(offset);
+	if (numberOfChampions < 0)
+	    return null;
+	int[] champions = new int[numberOfChampions];
+	for (int i = 0; i < numberOfChampions; i++)
+	    champions[i] = postingsFile.getInt(offset + 4 + 4 * i);
+	return champions;
+    }
+
+
+    private TermCounts readDocumentVector(int docID) {
+	ByteBuffer in = docVectorsFile.duplicate();
+	in.position(in.getInt(in.limit() - 4));
+	if (docID >= in.getInt())
+	    return null;
+	int offset = in.getInt(in.position() + 4 * docID);
+	if (offset < 0)
+	    return null;
+	in.position(offset);
+	int size = in.getInt();
+	TermCounts documentVector = new TermCounts(size);
+	for (int i = 0; i < size; i++) {
+	    int termID = in.getInt();
+	    documentVector.add(termID, in.getInt());
+	}
+	return documentVector;
+    }
+
 
     /**
-     *  no need for cleanup in a hashedindex.
+     *  Saves the index to disk, so that it can be read at the next startup,
+     *  unless it is the index that was read and nothing has been indexed.
      */
     public void cleanup() {
+	if (modified)
+	    writeIndexToDisk();
     }
 }
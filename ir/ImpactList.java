@@ -0,0 +1,130 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+
+/**
+ *   The postings of a term ordered by impact rather than by docID, for
+ *   score-at-a-time ranked retrieval (see ImpactSearch).
+ *
+ *   The impact of a posting is its tf-idf weight tf * idf / length,
+ *   quantized to one of LEVELS levels on a logarithmic scale. Postings
+ *   with the same level form a segment, sorted by docID; the segments
+ *   are ordered from the highest level to the lowest, so the first
+ *   segments are the high tier of the list and the last ones the low.
+ */
+public class ImpactList {
+
+    /** The number of impact levels. */
+    public static final int LEVELS = 256;
+
+    /** The number of levels per doubling of the impact. */
+    public static final int LEVELS_PER_OCTAVE = 16;
+
+    /**
+     *  The impact of the highest level. As tf is at most the document
+     *  length, it is the largest idf, that of a term in one document.
+     */
+    public static final double MAX_IMPACT = Math.log( 17486 );
+
+    /** The docIDs of the postings, by decreasing level and then by docID. */
+    private final int[] docIDs;
+
+    /** The level of each segment, in decreasing order. */
+    private final int[] levels;
+
+    /** Where each segment starts in docIDs, and where the last one ends. */
+    private final int[] segmentStarts;
+
+
+    /**
+     *  Builds the impact-ordered postings of a list.
+     *
+     *  @param docLengths The length of each document, indexed by docID.
+     */
+    public ImpactList( PostingsList list, int[] docLengths ) {
+	double idf = list.idf();
+	int[] postingLevels = new int[list.size()];
+	int[] counts = new int[LEVELS];
+	PostingsIterator it = list.iterator();
+	for ( int i=0; it.next(); i++ ) {
+	    postingLevels[i] = level( it.tf() * idf / docLengths[it.docID()] );
+	    counts[postingLevels[i]]++;
+	}
+	int segments = 0;
+	for ( int level=0; level<LEVELS; level++ ) {
+	    if ( counts[level] > 0 ) {
+		segments++;
+	    }
+	}
+	// Lay out the segments from the highest level down
+	levels = new int[segments];
+	segmentStarts = new int[segments+1];
+	int[] next = new int[LEVELS];
+	int segment = 0, start = 0;
+	for ( int level=LEVELS-1; level>=0; level-- ) {
+	    if ( counts[level] > 0 ) {
+		levels[segment] = level;
+		segmentStarts[segment++] = start;
+		next[level] = start;
+		start += counts[level];
+	    }
+	}
+	segmentStarts[segments] = start;
+	docIDs = new int[start];
+	it = list.iterator();
+	for ( int i=0; it.next(); i++ ) {
+	    docIDs[next[postingLevels[i]]++] = it.docID();
+	}
+    }
+
+
+    /**
+     *  Returns the level of an impact, rounded to the nearest level.
+     *  Impacts below the lowest level are put in it.
+     */
+    public static int level( double impact ) {
+	double octaves = Math.log( impact / MAX_IMPACT ) / Math.log( 2 );
+	long level = Math.round( LEVELS-1 + LEVELS_PER_OCTAVE * octaves );
+	return (int) Math.max( 0, Math.min( LEVELS-1, level ));
+    }
+
+
+    /**  Returns the impact that a level stands for. */
+    public static double impact( int level ) {
+	return MAX_IMPACT * Math.pow( 2, (double) (level - (LEVELS-1)) / LEVELS_PER_OCTAVE );
+    }
+
+
+    /**  The number of segments. */
+    public int segments() {
+	return levels.length;
+    }
+
+
+    /**  The impact of the postings in a segment. */
+    public double segmentImpact( int segment ) {
+	return impact( levels[segment] );
+    }
+
+
+    /**  Where a segment starts in docIDs(). */
+    public int segmentStart( int segment ) {
+	return segmentStarts[segment];
+    }
+
+
+    /**  Where a segment ends in docIDs(). */
+    public int segmentEnd( int segment ) {
+	return segmentStarts[segment+1];
+    }
+
+
+    /**  The docIDs of all segments, one segment after another. */
+    public int[] docIDs() {
+	return docIDs;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+
+
+/**
+ *   Finds the best documents for a tf-idf query score at a time, from
+ *   impact-ordered postings (see ImpactList).
+ *
+ *   Each segment of a query term adds the same score, its impact times
+ *   the query weight of the term, to all its documents. The segments of
+ *   all terms are processed from the highest score to the lowest, so the
+ *   documents that matter most are scored first. The search stops when
+ *   the scores that are left cannot change which documents are in the
+ *   top k, or when the budget of postings has been used up; in the
+ *   latter case the results are approximate.
+ *
+ *   As the impacts are quantized, the scores are within a few percent
+ *   of those of HashedIndex.cosineScore, and when the search stops early
+ *   the small contributions of the remaining segments are left out.
+ */
+public class ImpactSearch {
+
+    private final int numberOfDocs;
+
+
+    /**
+     *  @param numberOfDocs One more than the largest docID.
+     */
+    public ImpactSearch( int numberOfDocs ) {
+	this.numberOfDocs = numberOfDocs;
+    }
+
+
+    /**
+     *  Returns the k best documents for the query terms, in order of
+     *  decreasing score.
+     *
+     *  @param queryWeights The weight of each term in the query vector,
+     *  which must be positive.
+     *  @param budget The most postings to process.
+     */
+    public PostingsList search( ImpactList[] lists, double[] queryWeights, int k, int budget ) {
+	// Order the segments of all terms by the score they add
+	int segments = 0;
+	for ( ImpactList list : lists ) {
+	    segments += list.segments();
+	}
+	double[] segmentScores = new double[segments];
+	int[] segmentTerms = new int[segments];
+	int[] segmentNumbers = new int[segments];
+	// The bits of a positive float sort like the float, so each segment
+	// is sorted as its score in the high half and its number in the low
+	long[] order = new long[segments];
+	int n = 0;
+	for ( int t=0; t<lists.length; t++ ) {
+	    for ( int s=0; s<lists[t].segments(); s++ ) {
+		segmentScores[n] = lists[t].segmentImpact( s ) * queryWeights[t];
+		segmentTerms[n] = t;
+		segmentNumbers[n] = s;
+		order[n] = ((long) Float.floatToIntBits( (float) segmentScores[n] ) << 32) | n;
+		n++;
+	    }
+	}
+	Arrays.sort( order );
+
+	// The score of the next segment of each term, which bounds what it can still add
+	double[] remaining = new double[lists.length];
+	for ( int t=0; t<lists.length; t++ ) {
+	    remaining[t] = lists[t].segments() > 0 ? lists[t].segmentImpact( 0 ) * queryWeights[t] : 0;
+	}
+
+	float[] scores = new float[numberOfDocs];
+	int[] candidates = new int[numberOfDocs];
+	boolean[] seen = new boolean[numberOfDocs];
+	int numberOfCandidates = 0;
+	int processed = 0;
+	int nextCheck = Math.max( k, 64 );
+	for ( int i=segments-1; i>=0; i-- ) {
+	    if ( processed >= budget ) {
+		break;
+	    }
+	    if ( processed >= nextCheck ) {
+		if ( topSettled( scores, candidates, numberOfCandidates, k, remaining )) {
+		    break;
+		}
+		nextCheck = 2*processed;
+	    }
+	    int segment = (int) order[i];
+	    ImpactList list = lists[segmentTerms[segment]];
+	    int s = segmentNumbers[segment];
+	    double score = segmentScores[segment];
+	    int[] docIDs = list.docIDs();
+	    int start = list.segmentStart( s );
+	    int end = list.segmentEnd( s );
+	    if ( end - start > budget - processed ) {
+		end = start + budget - processed;
+	    }
+	    for ( int j=start; j<end; j++ ) {
+		int d = docIDs[j];
+		scores[d] += score;
+		if ( !seen[d] ) {
+		    seen[d] = true;
+		    candidates[numberOfCandidates++] = d;
+		}
+	    }
+	    processed += end - start;
+	    remaining[segmentTerms[segment]] = s+1 < list.segments() ? segmentScores[segment+1] : 0;
+	}
+
+	ResultHeap heap = new ResultHeap( k );
+	for ( int i=0; i<numberOfCandidates; i++ ) {
+	    heap.offer( candidates[i], scores[candidates[i]] );
+	}
+	return heap.toPostingsList();
+    }
+
+
+    /**
+     *  Returns true if no document outside the current top k can get
+     *  into it, even if it got all the scores that are left.
+     */
+    private static boolean topSettled( float[] scores, int[] candidates, int numberOfCandidates,
+				       int k, double[] remaining ) {
+	double left = 0;
+	for ( double r : remaining ) {
+	    left += r;
+	}
+	if ( left == 0 || k == 0 ) {
+	    return true;
+	}
+	if ( numberOfCandidates < k ) {
+	    return false;
+	}
+	ResultHeap heap = new ResultHeap( k+1 );
+	for ( int i=0; i<numberOfCandidates; i++ ) {
+	    heap.offer( candidates[i], scores[candidates[i]] );
+	}
+	PostingsList top = heap.toPostingsList();
+	double kth = top.score( k-1 );
+	double next = top.size() > k ? top.score( k ) : 0;
+	// Leave some room for the rounding of the float sums
+	return kth > (next + left) * (1 + 1e-6);
+    }
+}
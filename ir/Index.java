@@ -32,15 +32,23 @@ public interface Index {
     public static final int BIGRAM = 1; 
     public static final int SUBPHRASE = 2; 
 	
-    public HashMap<Integer, HashMap<String, Integer>> documentVectors = new HashMap<Integer, HashMap<String, Integer>>();
+    /** The document vector of each docID, keyed by the term IDs of dictionary. */
+    public IntMap<TermCounts> documentVectors = new IntMap<TermCounts>();
 
     public HashMap<String, String> docIDs = new HashMap<String,String>();
     public HashMap<String,Integer> docLengths = new HashMap<String,Integer>();
 
+    /** The term IDs of all indexed terms. */
+    public TermDictionary dictionary = new TermDictionary();
+
     public void insert( String token, int docID, int offset );
+    public void insert( int termID, int docID, int offset );
+    public void finishIndexing();
     public Iterator<String> getDictionary();
     public PostingsList getPostings( String token );
     public PostingsList search( Query query, int queryType, int rankingType, int structureType );
+    public TermCounts getDocumentVector( int docID );
+    public boolean readIndexFromDisk();
     public void cleanup();
 
 }
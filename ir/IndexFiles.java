@@ -0,0 +1,238 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+
+package ir;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ *   The files of an index saved in a directory. A new version of the
+ *   files is written to a directory of its own, which then takes the
+ *   place of the old one (see commit()), so the files read are always
+ *   from the same version, and files that are memory-mapped are never
+ *   overwritten. The files consist of big-endian ints, and strings are
+ *   written as their length followed by their chars. A file can be at
+ *   most 2 GB, as much as one ByteBuffer can map.
+ */
+public class IndexFiles {
+
+    public static final String DOCIDS_FILENAME = "docids";
+    public static final String DOCLENGTHS_FILENAME = "doclengths";
+
+    /** The saved index. */
+    private final File dir;
+
+    /** The new version while it is written. */
+    private final File newDir;
+
+    /** The old version while the new one takes its place. */
+    private final File oldDir;
+
+
+    public IndexFiles( String dirname ) {
+	dir = new File( dirname );
+	newDir = new File( dirname + ".new" );
+	oldDir = new File( dirname + ".old" );
+    }
+
+
+    /**
+     *  Returns true if the saved index has a file called @code{filename}.
+     *  If commit() was interrupted after the old version was moved away,
+     *  the old version is moved back first.
+     */
+    public boolean exists( String filename ) {
+	if ( !dir.exists() && oldDir.exists() ) {
+	    oldDir.renameTo( dir );
+	}
+	return new File( dir, filename ).exists();
+    }
+
+
+    /**
+     *  Memory-maps the file @code{filename} of the saved index.
+     */
+    public ByteBuffer mapFile( String filename ) throws IOException {
+	FileChannel channel = new FileInputStream( new File( dir, filename )).getChannel();
+	try {
+	    if ( channel.size() > Integer.MAX_VALUE ) {
+		throw new IOException( "The index file " + filename + " is larger than 2 GB" );
+	    }
+	    return channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+	}
+	finally {
+	    channel.close();
+	}
+    }
+
+
+    /**
+     *  Starts writing a new version of the index, throwing away any new
+     *  version that was never committed.
+     */
+    public void create() throws IOException {
+	delete( newDir );
+	if ( !newDir.mkdirs() ) {
+	    throw new IOException( "Could not create " + newDir );
+	}
+    }
+
+
+    /**
+     *  Creates the file @code{filename} of the new version.
+     */
+    public DataOutputStream createFile( String filename ) throws IOException {
+	File f = new File( newDir, filename );
+	return new DataOutputStream( new BufferedOutputStream( new FileOutputStream( f )));
+    }
+
+
+    /**
+     *  Returns the number of bytes written to @code{out}, to be used as
+     *  an offset into the file.
+     *
+     *  @throws IOException if the file has grown larger than 2 GB.
+     */
+    public static int offset( DataOutputStream out ) throws IOException {
+	// size() stops counting at Integer.MAX_VALUE
+	if ( out.size() == Integer.MAX_VALUE ) {
+	    throw new IOException( "An index file would be larger than 2 GB" );
+	}
+	return out.size();
+    }
+
+
+    /**
+     *  Closes a file of the new version.
+     *
+     *  @throws IOException if the file has grown larger than 2 GB.
+     */
+    public static void close( DataOutputStream out ) throws IOException {
+	try {
+	    offset( out );
+	}
+	finally {
+	    out.close();
+	}
+    }
+
+
+    /**
+     *  Puts the new version in the place of the saved index. There are
+     *  two renames, and a crash between them is undone by exists().
+     */
+    public void commit() throws IOException {
+	delete( oldDir );
+	if ( dir.exists() && !dir.renameTo( oldDir )) {
+	    throw new IOException( "Could not rename " + dir );
+	}
+	if ( !newDir.renameTo( dir )) {
+	    throw new IOException( "Could not rename " + newDir );
+	}
+	delete( oldDir );
+    }
+
+
+    /**
+     *  Deletes a directory of index files, if it exists.
+     */
+    private static void delete( File d ) throws IOException {
+	File[] fs = d.listFiles();
+	if ( fs == null ) {
+	    return;
+	}
+	for ( File f : fs ) {
+	    if ( !f.delete() ) {
+		throw new IOException( "Could not delete " + f );
+	    }
+	}
+	if ( !d.delete() ) {
+	    throw new IOException( "Could not delete " + d );
+	}
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Writes the docID to file path table of Index.docIDs as the number
+     *  of documents, followed by (docID, path).
+     */
+    public void writeDocIDs() throws IOException {
+	DataOutputStream out = createFile( DOCIDS_FILENAME );
+	out.writeInt( Index.docIDs.size() );
+	for ( String docID : Index.docIDs.keySet() ) {
+	    out.writeInt( Integer.parseInt( docID ));
+	    writeString( out, Index.docIDs.get( docID ));
+	}
+	close( out );
+    }
+
+
+    /**
+     *  Reads the docID to file path table into Index.docIDs.
+     */
+    public void readDocIDs() throws IOException {
+	ByteBuffer in = mapFile( DOCIDS_FILENAME );
+	int numberOfDocs = in.getInt();
+	for ( int i=0; i<numberOfDocs; i++ ) {
+	    int docID = in.getInt();
+	    Index.docIDs.put( "" + docID, readString( in ));
+	}
+    }
+
+
+    /**
+     *  Writes Index.docLengths as the number of documents, followed by
+     *  (docID, length).
+     */
+    public void writeDocLengths() throws IOException {
+	DataOutputStream out = createFile( DOCLENGTHS_FILENAME );
+	out.writeInt( Index.docLengths.size() );
+	for ( String docID : Index.docLengths.keySet() ) {
+	    out.writeInt( Integer.parseInt( docID ));
+	    out.writeInt( Index.docLengths.get( docID ));
+	}
+	close( out );
+    }
+
+
+    /**
+     *  Reads the document lengths into Index.docLengths.
+     */
+    public void readDocLengths() throws IOException {
+	ByteBuffer in = mapFile( DOCLENGTHS_FILENAME );
+	int numberOfDocs = in.getInt();
+	for ( int i=0; i<numberOfDocs; i++ ) {
+	    int docID = in.getInt();
+	    Index.docLengths.put( "" + docID, in.getInt() );
+	}
+    }
+
+
+    public static void writeString( DataOutputStream out, String s ) throws IOException {
+	out.writeInt( s.length() );
+	out.writeChars( s );
+    }
+
+
+    public static String readString( ByteBuffer in ) {
+	char[] chars = new char[in.getInt()];
+	for ( int i=0; i<chars.length; i++ ) {
+	    chars[i] = in.getChar();
+	}
+	return new String( chars );
+    }
+}
@@ -17,7 +17,19 @@ import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.pdfbox.cos.COSDocument;
 import org.apache.pdfbox.pdfparser.*;
 import org.apache.pdfbox.util.PDFTextStripper;
@@ -36,6 +48,15 @@ public class Indexer {
     /** The next docID to be generated. */
     private int lastDocID = 0;
 
+    /** The number of threads used for indexing. */
+    private int threads = 1;
+
+    /** If true, docIDs are handed out in order of decreasing PageRank. */
+    private boolean pagerankOrder = false;
+
+    /** The number of files tokenized by each parallel indexing task. */
+    private static final int FILES_PER_TASK = 64;
+
 
     /* ----------------------------------------------- */
 
@@ -66,11 +87,73 @@ public class Indexer {
     /* ----------------------------------------------- */
 
 
+    /**
+     *  Sets the number of threads used for indexing. A value of 0 means
+     *  one thread per available processor, and 1 means that files are
+     *  indexed serially (the default). Only a HashedIndex can be built
+     *  with more than one thread.
+     */
+    public void setThreads( int threads ) {
+	if ( threads <= 0 ) {
+	    threads = Runtime.getRuntime().availableProcessors();
+	}
+	this.threads = threads;
+    }
+
+
+    /**
+     *  If @code{pagerankOrder} is true, the files under each directory
+     *  given to processFiles get their docIDs in order of decreasing
+     *  PageRank, so that ranking by PageRank can stop early. Only a
+     *  HashedIndex can be built in this order.
+     */
+    public void setPagerankOrder( boolean pagerankOrder ) {
+	this.pagerankOrder = pagerankOrder;
+    }
+
+
+    /* ----------------------------------------------- */
+
+
     /**
      *  Tokenizes and indexes the file @code{f}. If @code{f} is a directory,
      *  all its files and subdirectories are recursively processed.
+     *
+     *  @throws IllegalStateException if more than one thread or PageRank
+     *  order is asked for and the index is not a HashedIndex.
      */
     public void processFiles( File f, JProgressBar progressBar ) {
+	if (( threads > 1 || pagerankOrder ) && !( index instanceof HashedIndex )) {
+	    throw new IllegalStateException( "Only a HashedIndex can be built in parallel or in PageRank order" );
+	}
+	if ( pagerankOrder ) {
+	    ArrayList<File> files = new ArrayList<File>();
+	    collectFiles( f, files );
+	    sortByPagerank( files );
+	    if ( threads > 1 ) {
+		processFilesInParallel( files, progressBar );
+	    }
+	    else {
+		for ( int i=0; i<files.size(); i++ ) {
+		    if ( progressBar != null ) {
+			progressBar.setValue( i );
+		    }
+		    processFilesSerially( files.get( i ), null );
+		}
+	    }
+	}
+	else if ( threads > 1 ) {
+	    ArrayList<File> files = new ArrayList<File>();
+	    collectFiles( f, files );
+	    processFilesInParallel( files, progressBar );
+	}
+	else {
+	    processFilesSerially( f, progressBar );
+	}
+    }
+
+
+    private void processFilesSerially( File f, JProgressBar progressBar ) {
 	// do not try to index fs that cannot be read
 	if ( f.canRead() ) {
 	    if ( f.isDirectory() ) {
@@ -79,7 +162,7 @@ public class Indexer {
 		if ( fs != null ) {
 		    for ( int i=0; i<fs.length; i++ ) {
 			progressBar.setValue(i);
-			processFiles( new File( f, fs[i] ), null);
+			processFilesSerially( new File( f, fs[i] ), null);
 		    }
 		}
 	    } else {
@@ -88,34 +171,13 @@ public class Indexer {
 		int docID = generateDocID();
 		index.docIDs.put( "" + docID, f.getPath() );
 		try {
-		    //  Read the first few bytes of the file to see if it is 
-		    // likely to be a PDF 
-		    Reader reader = new FileReader( f );
-		    char[] buf = new char[4];
-		    reader.read( buf, 0, 4 );
-		    if ( buf[0] == '%' && buf[1]=='P' && buf[2]=='D' && buf[3]=='F' ) {
-			// We assume this is a PDF file
-			try {
-			    String contents = extractPDFContents( f );
-			    reader = new StringReader( contents );
-			}
-			catch ( IOException e ) {
-			    // Perhaps it wasn't a PDF file after all
-			    reader = new FileReader( f );
-			}
-		    }
-		    else {
-			// We hope this is ordinary text
-			reader = new FileReader( f );
-		    }
-		    SimpleTokenizer tok = new SimpleTokenizer( reader );
+		    SimpleTokenizer tok = openTokenizer( f );
 		    int offset = 0;
-		    while ( tok.hasMoreTokens() ) {
-			String token = tok.nextToken();
-			insertIntoIndex( docID, token, offset++ );
+		    int termID;
+		    while (( termID = tok.nextTermID( index.dictionary )) >= 0 ) {
+			insertIntoIndex( docID, termID, offset++ );
 		    }
 		    index.docLengths.put( "" + docID, offset );
-		    reader.close();
 		}
 		catch ( IOException e ) {
 		    e.printStackTrace();
@@ -124,6 +186,161 @@ public class Indexer {
 	}
     }
 
+
+    /**
+     *  Indexes a list of files using a pool of worker threads. DocIDs are
+     *  handed out in the order of the list, and the files are split into
+     *  consecutive chunks that are tokenized into private partial indexes.
+     *  The partial indexes are merged in docID order while the remaining
+     *  chunks are still being tokenized, so postings lists stay sorted by
+     *  docID. If a chunk fails, the other chunks are cancelled and the
+     *  failure is thrown as an IllegalStateException, rather than leaving
+     *  an index with a gap in its docIDs.
+     */
+    private void processFilesInParallel( List<File> files, JProgressBar progressBar ) {
+	ExecutorService pool = Executors.newFixedThreadPool( threads );
+	ArrayList<Future<PartialIndex>> tasks = new ArrayList<Future<PartialIndex>>();
+	for ( int start=0; start<files.size(); start+=FILES_PER_TASK ) {
+	    int end = Math.min( start+FILES_PER_TASK, files.size() );
+	    tasks.add( pool.submit( new IndexingTask( files.subList( start, end ), lastDocID+start )));
+	}
+	lastDocID += files.size();
+	HashedIndex hashedIndex = (HashedIndex)index;
+	try {
+	    int filesDone = 0;
+	    for ( Future<PartialIndex> task : tasks ) {
+		hashedIndex.merge( task.get() );
+		filesDone = Math.min( filesDone+FILES_PER_TASK, files.size() );
+		if ( progressBar != null ) {
+		    progressBar.setValue( filesDone );
+		}
+	    }
+	}
+	catch ( InterruptedException e ) {
+	    Thread.currentThread().interrupt();
+	    throw new IllegalStateException( "Indexing was interrupted", e );
+	}
+	catch ( ExecutionException e ) {
+	    throw new IllegalStateException( "Indexing failed", e.getCause() );
+	}
+	finally {
+	    pool.shutdownNow();
+	}
+    }
+
+
+    /**
+     *  Collects all readable files under @code{f}, in the order in which
+     *  processFilesSerially would visit them.
+     */
+    private void collectFiles( File f, ArrayList<File> files ) {
+	if ( f.canRead() ) {
+	    if ( f.isDirectory() ) {
+		String[] fs = f.list();
+		if ( fs != null ) {
+		    for ( int i=0; i<fs.length; i++ ) {
+			collectFiles( new File( f, fs[i] ), files );
+		    }
+		}
+	    }
+	    else {
+		files.add( f );
+	    }
+	}
+    }
+
+
+    /**
+     *  Sorts files by decreasing PageRank. Files with the same PageRank,
+     *  such as those PageRank does not know, keep their order.
+     */
+    private void sortByPagerank( ArrayList<File> files ) {
+	final HashMap<File,Double> ranks = new HashMap<File,Double>();
+	for ( File f : files ) {
+	    ranks.put( f, ((HashedIndex)index).getPageRank( f.getPath() ));
+	}
+	Collections.sort( files, new Comparator<File>() {
+		public int compare( File f1, File f2 ) {
+		    return Double.compare( ranks.get( f2 ), ranks.get( f1 ));
+		}
+	    });
+    }
+
+
+    /**
+     *  Tokenizes a consecutive chunk of files into a partial index. The
+     *  first file gets docID @code{firstDocID}, the next one firstDocID+1,
+     *  and so on. A file that cannot be read fails the task.
+     */
+    private class IndexingTask implements Callable<PartialIndex> {
+	List<File> files;
+	int firstDocID;
+
+	IndexingTask( List<File> files, int firstDocID ) {
+	    this.files = files;
+	    this.firstDocID = firstDocID;
+	}
+
+	public PartialIndex call() throws IOException {
+	    PartialIndex partial = new PartialIndex();
+	    for ( int i=0; i<files.size(); i++ ) {
+		File f = files.get( i );
+		int docID = firstDocID + i;
+		partial.docIDs.put( "" + docID, f.getPath() );
+		try {
+		    SimpleTokenizer tok = openTokenizer( f );
+		    int offset = 0;
+		    int termID;
+		    while (( termID = tok.nextTermID( partial.dictionary )) >= 0 ) {
+			partial.insert( termID, docID, offset++ );
+		    }
+		    partial.docLengths.put( "" + docID, offset );
+		}
+		catch ( IOException e ) {
+		    // Fails the whole parallel indexing, see processFilesInParallel
+		    throw new IOException( "Could not index " + f.getPath(), e );
+		}
+	    }
+	    return partial;
+	}
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Opens a tokenizer over the textual contents of @code{f}. The file
+     *  is memory-mapped once; text files are tokenized directly from the
+     *  mapped bytes, and PDF files are recognized by their header and
+     *  have their text extracted first.
+     */
+    private SimpleTokenizer openTokenizer( File f ) throws IOException {
+	FileChannel channel = new FileInputStream( f ).getChannel();
+	MappedByteBuffer bytes;
+	try {
+	    bytes = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+	}
+	finally {
+	    // The mapping stays valid after the channel is closed
+	    channel.close();
+	}
+	//  Check the first few bytes of the file to see if it is 
+	// likely to be a PDF 
+	if ( bytes.limit() >= 4 && bytes.get(0) == '%' && bytes.get(1) == 'P' && bytes.get(2) == 'D' && bytes.get(3) == 'F' ) {
+	    // We assume this is a PDF file
+	    try {
+		String contents = extractPDFContents( f );
+		return new SimpleTokenizer( new StringReader( contents ));
+	    }
+	    catch ( IOException e ) {
+		// Perhaps it wasn't a PDF file after all
+	    }
+	}
+	// We hope this is ordinary text
+	return new SimpleTokenizer( bytes );
+    }
+
     
     /* ----------------------------------------------- */
 
@@ -153,5 +370,13 @@ public class Indexer {
     public void insertIntoIndex( int docID, String token, int offset ) {
 	index.insert( token, docID, offset );
     }
+
+
+    /**
+     *  Indexes one token, given by its term ID in Index.dictionary.
+     */
+    public void insertIntoIndex( int docID, int termID, int offset ) {
+	index.insert( termID, docID, offset );
+    }
 }
 	
@@ -0,0 +1,194 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+
+package ir;
+
+import java.util.Arrays;
+
+
+/**
+ *   A map from ints, such as term IDs and docIDs, to objects, without
+ *   boxing the keys. The entries are kept in the order they were first
+ *   put, as entries 0, 1, 2, ..., and are found through an open
+ *   addressing hash table of entry numbers. Entries cannot be removed.
+ *
+ *   The entry numbers can also be used directly, to keep the values in
+ *   primitive arrays of one's own (see add() and find()), as TermCounts
+ *   and PostingsList do; the map then has no values at all.
+ */
+public class IntMap<V> {
+
+    /** The key of each entry. */
+    private int[] keys;
+
+    /** The value of each entry, or null until a value is put. */
+    private Object[] values = null;
+
+    /** The number of entries. */
+    private int size = 0;
+
+    /** 
+     *  Open addressing hash table of entry numbers plus one, where 0
+     *  marks an empty slot. The length is always a power of two.
+     */
+    private int[] table;
+
+
+    public IntMap() {
+	this( 8 );
+    }
+
+
+    /**
+     *  Creates a map with room for @code{capacity} entries before it
+     *  has to grow.
+     */
+    public IntMap( int capacity ) {
+	capacity = Math.max( capacity, 1 );
+	keys = new int[capacity];
+	table = new int[Integer.highestOneBit( 2*capacity - 1 ) * 2];
+    }
+
+
+    /**
+     *  Returns the value of @code{key}, or null if it has none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get( int key ) {
+	int i = find( key );
+	return i < 0 || values == null ? null : (V) values[i];
+    }
+
+
+    /**
+     *  Sets the value of @code{key}.
+     */
+    public void put( int key, V value ) {
+	int i = add( key );
+	if ( values == null || values.length < keys.length ) {
+	    values = values == null ? new Object[keys.length] : Arrays.copyOf( values, keys.length );
+	}
+	values[i] = value;
+    }
+
+
+    /**
+     *  Returns the entry number of @code{key}, adding an entry without
+     *  a value if it is new. New entries get the numbers 0, 1, 2, ...
+     */
+    int add( int key ) {
+	int mask = table.length - 1;
+	int slot = hash( key ) & mask;
+	while ( table[slot] != 0 ) {
+	    int i = table[slot] - 1;
+	    if ( keys[i] == key ) {
+		return i;
+	    }
+	    slot = (slot+1) & mask;
+	}
+	int i = size++;
+	if ( i == keys.length ) {
+	    keys = Arrays.copyOf( keys, 2*i );
+	}
+	keys[i] = key;
+	table[slot] = i + 1;
+	if ( 2*size > table.length ) {
+	    rehash( 2*table.length );
+	}
+	return i;
+    }
+
+
+    public boolean containsKey( int key ) {
+	return find( key ) >= 0;
+    }
+
+
+    /**
+     *  Returns the number of entries.
+     */
+    public int size() {
+	return size;
+    }
+
+
+    /**
+     *  Returns the key of entry @code{i}, 0 <= i < size().
+     */
+    public int key( int i ) {
+	return keys[i];
+    }
+
+
+    /**
+     *  Returns the value of entry @code{i}, 0 <= i < size().
+     */
+    @SuppressWarnings("unchecked")
+    public V value( int i ) {
+	return values == null || i >= values.length ? null : (V) values[i];
+    }
+
+
+    /**
+     *  Puts all the entries of @code{other} in this map.
+     */
+    public void putAll( IntMap<? extends V> other ) {
+	for ( int i=0; i<other.size; i++ ) {
+	    put( other.keys[i], other.value( i ));
+	}
+    }
+
+
+    /**
+     *  Replaces every key k by @code{newKeys[k]}. No two keys may get
+     *  the same new key.
+     */
+    void renumber( int[] newKeys ) {
+	for ( int i=0; i<size; i++ ) {
+	    keys[i] = newKeys[keys[i]];
+	}
+	rehash( table.length );
+    }
+
+
+    /**
+     *  Returns the entry number of @code{key}, or -1.
+     */
+    int find( int key ) {
+	int mask = table.length - 1;
+	int slot = hash( key ) & mask;
+	while ( table[slot] != 0 ) {
+	    int i = table[slot] - 1;
+	    if ( keys[i] == key ) {
+		return i;
+	    }
+	    slot = (slot+1) & mask;
+	}
+	return -1;
+    }
+
+
+    /**
+     *  Spreads consecutive keys over the table.
+     */
+    private static int hash( int key ) {
+	int h = key * 0x9e3779b9;
+	return h ^ (h >>> 16);
+    }
+
+
+    private void rehash( int tableLength ) {
+	table = new int[tableLength];
+	int mask = tableLength - 1;
+	for ( int i=0; i<size; i++ ) {
+	    int slot = hash( keys[i] ) & mask;
+	    while ( table[slot] != 0 ) {
+		slot = (slot+1) & mask;
+	    }
+	    table[slot] = i + 1;
+	}
+    }
+}
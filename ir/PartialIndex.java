@@ -0,0 +1,54 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+
+package ir;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+
+/**
+ *   A private index built by one indexing thread over a consecutive
+ *   range of docIDs. Partial indexes are merged into a HashedIndex
+ *   in docID order, see HashedIndex.merge.
+ */
+public class PartialIndex {
+
+    /** The term IDs of this partial index, local to the indexing thread. */
+    TermDictionary dictionary = new TermDictionary();
+
+    /** The partial index as an array from local term IDs to PostingsLists. */
+    PostingsList[] index = new PostingsList[1024];
+
+    /** The parts of Index.documentVectors, docIDs and docLengths for this range. */
+    IntMap<TermCounts> documentVectors = new IntMap<TermCounts>();
+    HashMap<String, String> docIDs = new HashMap<String,String>();
+    HashMap<String,Integer> docLengths = new HashMap<String,Integer>();
+
+
+    /**
+     *  Inserts the term with this local term ID in the partial index.
+     */
+    public void insert( int termID, int docID, int offset ) {
+	TermCounts documentVector = documentVectors.get(docID);
+	if (documentVector == null) {
+	    documentVector = new TermCounts();
+	    documentVectors.put(docID, documentVector);
+	}
+	documentVector.add(termID);
+
+	if (dictionary.term(termID).length() > 0) {
+	    if (termID >= index.length)
+		index = Arrays.copyOf(index, Math.max(2 * index.length, termID + 1));
+	    PostingsList pl = index[termID];
+	    if (pl == null) {
+		pl = new PostingsList();
+		index[termID] = pl;
+	    }
+	    pl.add(docID, offset);
+	}
+    }
+}
@@ -0,0 +1,238 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+package ir;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ *   Iterates over the postings of a PostingsList in docID order,
+ *   decoding compressed postings on the fly. Positions are only
+ *   decoded when asked for, and advance() uses the skip table of
+ *   compressed lists to jump over whole blocks of postings.
+ *
+ *   A new iterator is positioned before the first posting, so next()
+ *   must be called before the first docID() or tf().
+ */
+public class PostingsIterator {
+
+    /** The compressed postings, or null if iterating over an uncompressed list. */
+    private ByteBuffer bytes;
+
+    /** The uncompressed list, if @code{bytes} is null. */
+    private PostingsList list;
+
+    /** The number of postings, and the index of the current one. */
+    private int size;
+    private int index = -1;
+
+    /** The number of blocks in the skip table of @code{bytes}, or 0 if there is none. */
+    private int blocks = 0;
+
+    private int docID = 0;
+    private int tf = 0;
+
+    /** Where the positions of the current posting start and end in @code{bytes}. */
+    private int positionsStart = 0;
+    private int positionsEnd = 0;
+
+    /** The decoded positions of the current posting, if @code{decoded}. */
+    private int[] positions = new int[16];
+    private boolean decoded = false;
+
+
+    PostingsIterator( ByteBuffer bytes, int size ) {
+	this.bytes = bytes;
+	this.size = size;
+	if ( size > PostingsList.BLOCK_SIZE ) {
+	    blocks = (size + PostingsList.BLOCK_SIZE - 1) / PostingsList.BLOCK_SIZE;
+	}
+	// The postings start after the skip table
+	positionsEnd = 8*blocks;
+    }
+
+    PostingsIterator( PostingsList list ) {
+	this.list = list;
+	this.size = list.size();
+    }
+
+
+    /**
+     *  Moves to the next posting.
+     *
+     *  @return false if there are no more postings.
+     */
+    public boolean next() {
+	if ( index+1 >= size ) {
+	    index = size;
+	    return false;
+	}
+	index++;
+	decoded = false;
+	if ( bytes != null ) {
+	    // Skip the positions of the previous posting if they were not read
+	    int ptr = positionsEnd;
+	    int gap = 0, shift = 0, b;
+	    do {
+		b = bytes.get( ptr++ );
+		gap |= (b & 0x7f) << shift;
+		shift += 7;
+	    } while ( b < 0 );
+	    docID += gap;
+	    tf = 0; shift = 0;
+	    do {
+		b = bytes.get( ptr++ );
+		tf |= (b & 0x7f) << shift;
+		shift += 7;
+	    } while ( b < 0 );
+	    int positionBytes = 0; shift = 0;
+	    do {
+		b = bytes.get( ptr++ );
+		positionBytes |= (b & 0x7f) << shift;
+		shift += 7;
+	    } while ( b < 0 );
+	    positionsStart = ptr;
+	    positionsEnd = ptr + positionBytes;
+	}
+	else {
+	    docID = list.docID( index );
+	    tf = list.tf( index );
+	}
+	return true;
+    }
+
+
+    /**
+     *  Moves to the first posting, from the current one on, whose docID
+     *  is at least @code{target}. The current posting is kept if its
+     *  docID is large enough.
+     *
+     *  The search gallops: it looks 1, 2, 4, ... blocks (or postings,
+     *  in an uncompressed list) ahead until it passes @code{target}, and
+     *  then binary searches the last step. Moving a distance d thus
+     *  costs O(log d), however long the list is.
+     *
+     *  @return false if there is no such posting.
+     */
+    public boolean advance( int target ) {
+	if ( index >= 0 && index < size && docID >= target ) {
+	    return true;
+	}
+	if ( bytes != null && blocks > 0 ) {
+	    int block = Math.max( index, 0 ) / PostingsList.BLOCK_SIZE;
+	    if ( bytes.getInt( 8*block ) < target ) {
+		// Find the first block whose last docID is at least target
+		int lo = block+1, step = 1;
+		while ( lo+step <= blocks && bytes.getInt( 8*(lo+step-1) ) < target ) {
+		    lo += step;
+		    step *= 2;
+		}
+		int hi = Math.min( lo+step, blocks );
+		while ( lo < hi ) {
+		    int mid = (lo+hi) >>> 1;
+		    if ( bytes.getInt( 8*mid ) < target ) {
+			lo = mid+1;
+		    }
+		    else {
+			hi = mid;
+		    }
+		}
+		if ( lo == blocks ) {
+		    index = size;
+		    return false;
+		}
+		// Continue decoding from the start of that block
+		index = lo*PostingsList.BLOCK_SIZE - 1;
+		docID = bytes.getInt( 8*(lo-1) );
+		positionsEnd = 8*blocks + bytes.getInt( 8*lo + 4 );
+	    }
+	}
+	else if ( bytes == null ) {
+	    // Find the first docID that is at least target
+	    int lo = index+1, step = 1;
+	    while ( lo+step <= size && list.docID( lo+step-1 ) < target ) {
+		lo += step;
+		step *= 2;
+	    }
+	    int hi = Math.min( lo+step, size );
+	    while ( lo < hi ) {
+		int mid = (lo+hi) >>> 1;
+		if ( list.docID( mid ) < target ) {
+		    lo = mid+1;
+		}
+		else {
+		    hi = mid;
+		}
+	    }
+	    index = lo-1;
+	}
+	while ( next() ) {
+	    if ( docID >= target ) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+
+    /**  The docID of the current posting. */
+    public int docID() {
+	return docID;
+    }
+
+
+    /**  The number of positions of the current posting. */
+    public int tf() {
+	return tf;
+    }
+
+
+    /**
+     *  Returns the positions of the current posting in the first tf()
+     *  elements of an array. The array is reused by the next call to
+     *  next(), so it must not be kept.
+     */
+    public int[] positions() {
+	if ( decoded ) {
+	    return positions;
+	}
+	if ( positions.length < tf ) {
+	    positions = new int[Math.max( tf, 2*positions.length )];
+	}
+	if ( bytes != null ) {
+	    int ptr = positionsStart;
+	    int position = 0;
+	    for ( int k=0; k<tf; k++ ) {
+		int gap = 0, shift = 0, b;
+		do {
+		    b = bytes.get( ptr++ );
+		    gap |= (b & 0x7f) << shift;
+		    shift += 7;
+		} while ( b < 0 );
+		position += gap;
+		positions[k] = position;
+	    }
+	}
+	else {
+	    list.copyPositions( index, positions );
+	}
+	decoded = true;
+	return positions;
+    }
+
+
+    /**
+     *  Returns the current posting as a new PostingsEntry with positions.
+     */
+    public PostingsEntry entry() {
+	PostingsEntry pe = new PostingsEntry( docID );
+	int[] p = positions();
+	for ( int k=0; k<tf; k++ ) {
+	    pe.positions.add( p[k] );
+	}
+	return pe;
+    }
+}
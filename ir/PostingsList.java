@@ -8,60 +8,400 @@
 
 package ir;
 
-import java.util.LinkedList;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.ListIterator;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 /**
  *   A list of postings for a given word.
+ *
+ *   The postings are kept in growable primitive arrays: the docIDs, 
+ *   where the positions of each posting start, one flat array of all
+ *   positions, and the scores (only for ranked results). Postings are
+ *   expected to be added in ascending docID order, so a new docID only
+ *   has to be compared with the last one. Scored entries may be added
+ *   in any order; a docID -> index table is then built to find them.
  */
 public class PostingsList implements Serializable {
 
-    /** The postings list as a linked list. */
-    private ArrayList<PostingsEntry> list = new ArrayList<PostingsEntry>();
-    private HashSet<Integer> docIDs = new HashSet<Integer>();
+    /** The number of postings. */
+    private int size = 0;
+
+    /** The docID of each posting. */
+    private int[] docIDs = new int[2];
+
+    /** 
+     *  Where the positions of each posting start in @code{positions}; the
+     *  positions of posting i end where those of posting i+1 start.
+     */
+    private int[] positionStarts = new int[3];
+
+    /** The positions of all postings, one posting after another. */
+    private int[] positions = new int[4];
+
+    /** The score of each posting, or null if no scores have been set. */
+    private double[] scores = null;
+
+    /** 
+     *  The docIDs as the keys of entries 0, 1, 2, ..., the same numbers
+     *  as the postings, or null while all docIDs have been added in
+     *  ascending order.
+     */
+    private IntMap<Void> docIndex = null;
+
     private final int N = 17486; // Number of documents in collection.
 
+    /** The number of postings per block in the skip table of compressed lists. */
+    static final int BLOCK_SIZE = 64;
+
+    /** 
+     *  The compressed postings, or null if the list is not compressed.
+     *  See compress() for the format.
+     */
+    private ByteBuffer compressed = null;
+
+    /**
+     *  The largest tf / document length of the postings in each block of
+     *  BLOCK_SIZE postings, rounded up to a float, or null if they have
+     *  not been computed. Used to bound scores, see
+     *  HashedIndex.staticScoreSearch.
+     */
+    private float[] blockMaxima = null;
+
+    /**
+     *  The docIDs, in ascending order, of the champion list of the term:
+     *  the postings with the highest weight (see HashedIndex). Null if
+     *  the champion list is the whole list or has not been computed.
+     */
+    private int[] champions = null;
+
+    /**
+     *  The docIDs, in ascending order, of the champion list of the term
+     *  for COMBINATION queries, where the weight is blended with PageRank
+     *  (see HashedIndex). Null if it is the whole list or has not been
+     *  computed.
+     */
+    private int[] pagerankChampions = null;
+
+    /** The iterator used by get() on a compressed list, and its index. */
+    private PostingsIterator cursor = null;
+    private int cursorIndex = -1;
+
     public PostingsList() {
     }
 
+    /**
+     *  Creates a compressed list from postings in the format written
+     *  by compress(), for example a slice of a memory-mapped file.
+     */
+    public PostingsList(ByteBuffer compressed, int size) {
+        this.compressed = compressed;
+        this.size = size;
+        docIDs = null;
+        positionStarts = null;
+        positions = null;
+    }
+
     public double idf() {
-        return Math.log(N/list.size());
+        return Math.log(N/size());
     }
 
+    /**
+     *  Appends all postings of @code{temp}, whose docIDs must all be 
+     *  larger than those in this list.
+     */
     public void addAll(PostingsList temp) {
-        list.addAll(temp.list);
+        decompress();
+        PostingsIterator it = temp.iterator();
+        while (it.next()) {
+            int[] p = it.positions();
+            addPosting(it.docID());
+            for (int k = 0; k < it.tf(); k++)
+                addPosition(p[k]);
+        }
     }
 
     /**  Number of postings in this list  */
     public int size() {
-        return list.size();
+        return size;
     }
 
-    /**  Returns the ith posting */
+    /**
+     *  Returns the ith posting as a new entry. On a compressed list the
+     *  posting is decoded; going through the list in order is cheap,
+     *  but iterator() should be preferred.
+     */
     public PostingsEntry get( int i ) {
-        return list.get( i );
+        if (compressed == null) {
+            PostingsEntry pe = new PostingsEntry(docIDs[i]);
+            for (int k = positionStarts[i]; k < positionStarts[i+1]; k++)
+                pe.positions.add(positions[k]);
+            if (scores != null)
+                pe.score = scores[i];
+            return pe;
+        }
+        return seek(i).entry();
+    }
+
+    /**
+     *  Returns the docID of the ith posting without creating an entry,
+     *  for going through result lists. On a compressed list the posting
+     *  is decoded as by get().
+     */
+    public int docID( int i ) {
+        if (i >= size)
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        if (compressed == null)
+            return docIDs[i];
+        return seek(i).docID();
+    }
+
+    /**  Moves the cursor of a compressed list to the ith posting. */
+    private PostingsIterator seek( int i ) {
+        if (i >= size)
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        if (cursor == null || i < cursorIndex) {
+            cursor = iterator();
+            cursorIndex = -1;
+        }
+        while (cursorIndex < i) {
+            cursor.next();
+            cursorIndex++;
+        }
+        return cursor;
+    }
+
+    /**  Returns the score of the ith posting, or 0 if no scores have been set. */
+    public double score( int i ) {
+        if (i >= size)
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        return scores == null ? 0 : scores[i];
+    }
+
+    /**  Returns an iterator over the postings, in list order. */
+    public PostingsIterator iterator() {
+        if (compressed != null)
+            return new PostingsIterator(compressed.duplicate(), size);
+        return new PostingsIterator(this);
+    }
+
+    /**  The number of positions of the ith posting of an uncompressed list. */
+    int tf(int i) {
+        return positionStarts[i+1] - positionStarts[i];
+    }
+
+    /**  Copies the positions of the ith posting of an uncompressed list. */
+    void copyPositions(int i, int[] dest) {
+        System.arraycopy(positions, positionStarts[i], dest, 0, tf(i));
+    }
+
+    /**
+     *  Compresses the list, which must be sorted by docID with the
+     *  positions of each posting in ascending order. Every posting is 
+     *  stored as the variable-byte encoded numbers
+     *
+     *    docID gap, tf, number of bytes of positions, position gaps
+     *
+     *  where the gaps are the differences to the previous docID and
+     *  position (the first ones are relative to 0). Each number is 
+     *  stored 7 bits at a time, low bits first, with the high bit set
+     *  in all bytes but the last. Scores are not kept.
+     *
+     *  Lists with more than BLOCK_SIZE postings start with a skip table
+     *  with two ints per block of BLOCK_SIZE postings: the last docID of
+     *  the block, and where the block starts, counted from the end of
+     *  the table. PostingsIterator.advance uses it to skip blocks.
+     */
+    public void compress() {
+        if (compressed != null)
+            return;
+        int blocks = size > BLOCK_SIZE ? (size + BLOCK_SIZE - 1) / BLOCK_SIZE : 0;
+        int length = 8 * blocks;
+        int lastDocID = 0;
+        for (int i = 0; i < size; i++) {
+            if (docIDs[i] < lastDocID)
+                throw new IllegalStateException("Only lists sorted by docID can be compressed");
+            int positionBytes = positionBytes(i);
+            length += vbyteLength(docIDs[i] - lastDocID) + vbyteLength(tf(i)) + vbyteLength(positionBytes) + positionBytes;
+            lastDocID = docIDs[i];
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer skips = ByteBuffer.wrap(bytes);
+        int ptr = 8 * blocks;
+        lastDocID = 0;
+        for (int i = 0; i < size; i++) {
+            if (blocks > 0 && i % BLOCK_SIZE == 0) {
+                int block = i / BLOCK_SIZE;
+                skips.putInt(8 * block, docIDs[Math.min(i + BLOCK_SIZE, size) - 1]);
+                skips.putInt(8 * block + 4, ptr - 8 * blocks);
+            }
+            ptr = writeVByte(bytes, ptr, docIDs[i] - lastDocID);
+            ptr = writeVByte(bytes, ptr, tf(i));
+            ptr = writeVByte(bytes, ptr, positionBytes(i));
+            int lastPosition = 0;
+            for (int k = positionStarts[i]; k < positionStarts[i+1]; k++) {
+                ptr = writeVByte(bytes, ptr, positions[k] - lastPosition);
+                lastPosition = positions[k];
+            }
+            lastDocID = docIDs[i];
+        }
+        compressed = ByteBuffer.wrap(bytes);
+        docIDs = null;
+        positionStarts = null;
+        positions = null;
+        scores = null;
+        docIndex = null;
+    }
+
+    /**
+     *  Computes blockMaxima() from the length of each document, indexed
+     *  by docID.
+     */
+    public void computeBlockMaxima(int[] docLengths) {
+        float[] maxima = new float[blocks()];
+        PostingsIterator it = iterator();
+        for (int i = 0; it.next(); i++) {
+            double impact = (double) it.tf() / docLengths[it.docID()];
+            float rounded = (float) impact;
+            if (rounded < impact)
+                rounded = Math.nextUp(rounded);
+            maxima[i / BLOCK_SIZE] = Math.max(maxima[i / BLOCK_SIZE], rounded);
+        }
+        blockMaxima = maxima;
+    }
+
+    /**
+     *  Returns the largest tf / document length in each block of postings,
+     *  or null if computeBlockMaxima has not been called since the list
+     *  last changed.
+     */
+    public float[] blockMaxima() {
+        return blockMaxima;
+    }
+
+    void setBlockMaxima(float[] maxima) {
+        blockMaxima = maxima;
+    }
+
+    /**  Returns the docIDs of the champion list, or null if it is the whole list. */
+    public int[] champions() {
+        return champions;
+    }
+
+    public void setChampions(int[] champions) {
+        this.champions = champions;
+    }
+
+    /**  Returns the docIDs of the COMBINATION champion list, or null. */
+    public int[] pagerankChampions() {
+        return pagerankChampions;
+    }
+
+    public void setPagerankChampions(int[] champions) {
+        pagerankChampions = champions;
+    }
+
+    /**  The number of blocks of BLOCK_SIZE postings, the last one possibly shorter. */
+    public int blocks() {
+        return (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    /**  Returns the compressed postings, or null if the list is not compressed. */
+    public ByteBuffer compressed() {
+        return compressed == null ? null : compressed.duplicate();
+    }
+
+    /**  Turns a compressed list back into an ordinary list. */
+    private void decompress() {
+        if (compressed == null)
+            return;
+        PostingsIterator it = iterator();
+        int compressedSize = size;
+        size = 0;
+        docIDs = new int[Math.max(compressedSize, 2)];
+        positionStarts = new int[docIDs.length + 1];
+        positions = new int[4];
+        compressed = null;
+        cursor = null;
+        while (it.next()) {
+            int[] p = it.positions();
+            addPosting(it.docID());
+            for (int k = 0; k < it.tf(); k++)
+                addPosition(p[k]);
+        }
+    }
+
+    private int positionBytes(int i) {
+        int bytes = 0;
+        int lastPosition = 0;
+        for (int k = positionStarts[i]; k < positionStarts[i+1]; k++) {
+            if (positions[k] < lastPosition)
+                throw new IllegalStateException("Only lists with ascending positions can be compressed");
+            bytes += vbyteLength(positions[k] - lastPosition);
+            lastPosition = positions[k];
+        }
+        return bytes;
+    }
+
+    private static int vbyteLength(int v) {
+        int length = 1;
+        while ((v >>>= 7) != 0)
+            length++;
+        return length;
+    }
+
+    private static int writeVByte(byte[] bytes, int ptr, int v) {
+        while ((v & ~0x7f) != 0) {
+            bytes[ptr++] = (byte)((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        bytes[ptr++] = (byte)v;
+        return ptr;
     }
 
+    /**
+     *  Adds a scored entry. If the docID is already in the list, the
+     *  score is added to its score instead.
+     */
     public void add(PostingsEntry pe) {
-        if (!contains(pe.docID)) {
-            docIDs.add(pe.docID);
-            list.add(pe);
-        } else {
-	    // Just add the score.
-	    for (int i = 0; i < size(); ++i) {
-		if (get(i).docID == pe.docID)
-		    get(i).score += pe.score;
-	    }
-	}
+        decompress();
+        if (scores == null)
+            scores = new double[docIDs.length];
+        int i = indexOf(pe.docID);
+        if (i >= 0) {
+            // Just add the score.
+            scores[i] += pe.score;
+            return;
+        }
+        if (size > 0 && pe.docID < docIDs[size-1] && docIndex == null)
+            buildDocIndex();
+        addPosting(pe.docID);
+        for (int position : pe.positions)
+            addPosition(position);
+        scores[size-1] = pe.score;
     }
 
+    /**
+     *  Sorts the postings by descending score. Postings with the same
+     *  score keep their order.
+     */
     public void sort() {
+        decompress();
+        ArrayList<PostingsEntry> list = new ArrayList<PostingsEntry>(size);
+        for (int i = 0; i < size; i++)
+            list.add(get(i));
         Collections.sort(list, new CompareEntries());
+        PostingsList sorted = new PostingsList();
+        for (PostingsEntry pe : list)
+            sorted.add(pe);
+        docIDs = sorted.docIDs;
+        positionStarts = sorted.positionStarts;
+        positions = sorted.positions;
+        scores = sorted.scores;
+        docIndex = sorted.docIndex;
     }
 
     private class CompareEntries implements Comparator<PostingsEntry> {
@@ -74,30 +414,85 @@ public class PostingsList implements Serializable {
     }
     
     public void add(int docID) {
-        if (!contains(docID)) {
-            docIDs.add(docID);
-            list.add(new PostingsEntry(docID));
+        decompress();
+        if (size == 0 || docIDs[size-1] != docID) {
+            checkAscending(docID);
+            addPosting(docID);
         }
     }
 
     public void add(int docID, int offset) {
-        if (!contains(docID)) {
-            docIDs.add(docID);
-            list.add(new PostingsEntry(docID, offset));
-        } else {
-            PostingsEntry pe = list.get(list.size()-1);
-            pe.positions.add(offset);
+        decompress();
+        if (size == 0 || docIDs[size-1] != docID) {
+            checkAscending(docID);
+            addPosting(docID);
         }
+        addPosition(offset);
     }
 
+    /**
+     *  Returns true if the list has a posting for @code{docID}. A
+     *  compressed list is searched through its skip table and stays
+     *  compressed.
+     */
     public boolean contains(int docID) {
-        return docIDs.contains(docID);
+        if (compressed == null)
+            return indexOf(docID) >= 0;
+        PostingsIterator it = iterator();
+        return it.advance(docID) && it.docID() == docID;
+    }
+
+    private void checkAscending(int docID) {
+        if (size > 0 && docID < docIDs[size-1])
+            throw new IllegalArgumentException("Postings must be added in ascending docID order");
+    }
+
+    /**  Starts a new posting with no positions at the end of the list. */
+    private void addPosting(int docID) {
+        if (size == docIDs.length) {
+            int capacity = size + (size >> 1) + 2;
+            docIDs = Arrays.copyOf(docIDs, capacity);
+            positionStarts = Arrays.copyOf(positionStarts, capacity + 1);
+            if (scores != null)
+                scores = Arrays.copyOf(scores, capacity);
+        }
+        docIDs[size] = docID;
+        positionStarts[size+1] = positionStarts[size];
+        blockMaxima = null;
+        champions = null;
+        pagerankChampions = null;
+        size++;
+        if (docIndex != null)
+            docIndex.add(docID);
+    }
+
+    /**  Adds a position to the last posting. */
+    private void addPosition(int offset) {
+        int end = positionStarts[size];
+        if (end == positions.length)
+            positions = Arrays.copyOf(positions, end + (end >> 1) + 4);
+        positions[end] = offset;
+        positionStarts[size] = end + 1;
+    }
+
+    /**  Returns the index of the posting with this docID, or -1. */
+    private int indexOf(int docID) {
+        if (docIndex != null)
+            return docIndex.find(docID);
+        int i = Arrays.binarySearch(docIDs, 0, size, docID);
+        return i >= 0 ? i : -1;
+    }
+
+    private void buildDocIndex() {
+        docIndex = new IntMap<Void>(2 * size);
+        for (int i = 0; i < size; i++)
+            docIndex.add(docIDs[i]);
     }
 
     public void printList() {
         System.out.println("BUUURG");
-        for (int i = 0; i < list.size(); i++) {
-            System.out.println(list.get(i).docID);
+        for (int i = 0; i < size(); i++) {
+            System.out.println(docID(i));
         }
     }
 }
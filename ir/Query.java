@@ -19,6 +19,9 @@ public class Query {
     public LinkedList<String> terms = new LinkedList<String>();
     public LinkedList<Double> weights = new LinkedList<Double>();
 
+    /**  The number of documents a ranked search returns at most. */
+    public int maxResults = 100;
+
     /**
      *  Creates a new empty Query 
      */
@@ -50,6 +53,7 @@ public class Query {
 	Query queryCopy = new Query();
 	queryCopy.terms = (LinkedList<String>) terms.clone();
 	queryCopy.weights = (LinkedList<Double>) weights.clone();
+	queryCopy.maxResults = maxResults;
 	return queryCopy;
     }
     
@@ -88,16 +92,16 @@ public class Query {
 		continue;
 
 	    numberOfRelevantDocs += 1;
-	    HashMap<String, Integer> documentVector = indexer.index.documentVectors.get(results.get(i).docID);
+	    TermCounts documentVector = indexer.index.getDocumentVector(results.docID(i));
 
 	    int tfSum = 0;
-	    for (Integer tf : documentVector.values()) {
-		tfSum += tf;
+	    for (int j = 0; j < documentVector.size(); ++j) {
+		tfSum += documentVector.count(j);
 	    }
 
-	    for (Map.Entry<String, Integer> entry : documentVector.entrySet()) {
-		String term = entry.getKey();
-		int tf = entry.getValue();
+	    for (int j = 0; j < documentVector.size(); ++j) {
+		String term = Index.dictionary.term(documentVector.termID(j));
+		int tf = documentVector.count(j);
 		// Normalize 
 		double tfNorm = tf / (double) tfSum;
 
@@ -0,0 +1,151 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+
+/**
+ *   Keeps the k best-scoring documents seen so far in a min-heap, so
+ *   that picking the top k of n candidates takes O(n log k) time.
+ *   Among equal scores, the document with the smallest docID wins.
+ */
+public class ResultHeap {
+
+    /** The docIDs in the heap, the worst one at the root. */
+    private final int[] docIDs;
+
+    /** The scores of the docIDs in the heap. */
+    private final double[] scores;
+
+    private int size = 0;
+
+    public ResultHeap( int k ) {
+	docIDs = new int[Math.max( k, 0 )];
+	scores = new double[docIDs.length];
+    }
+
+
+    /**
+     *  Adds the document to the heap if it is among the k best so far.
+     *
+     *  @return true if the document was added.
+     */
+    public boolean offer( int docID, double score ) {
+	if ( size < docIDs.length ) {
+	    docIDs[size] = docID;
+	    scores[size] = score;
+	    siftUp( size++ );
+	    return true;
+	}
+	if ( size == 0 || !better( docID, score, 0 )) {
+	    return false;
+	}
+	docIDs[0] = docID;
+	scores[0] = score;
+	siftDown( 0 );
+	return true;
+    }
+
+
+    /**
+     *  The score a document must beat to get into a full heap, or
+     *  negative infinity while the heap is not full.
+     */
+    public double threshold() {
+	if ( size < docIDs.length ) {
+	    return Double.NEGATIVE_INFINITY;
+	}
+	return size == 0 ? Double.POSITIVE_INFINITY : scores[0];
+    }
+
+
+    public int size() {
+	return size;
+    }
+
+
+    /**
+     *  Empties the heap into a list ordered by decreasing score.
+     */
+    public PostingsList toPostingsList() {
+	PostingsEntry[] sorted = new PostingsEntry[size];
+	while ( size > 0 ) {
+	    PostingsEntry entry = new PostingsEntry( docIDs[0] );
+	    entry.score = scores[0];
+	    sorted[--size] = entry;
+	    docIDs[0] = docIDs[size];
+	    scores[0] = scores[size];
+	    siftDown( 0 );
+	}
+	PostingsList list = new PostingsList();
+	for ( PostingsEntry entry : sorted ) {
+	    list.add( entry );
+	}
+	return list;
+    }
+
+
+    /**
+     *  Returns the k best-scoring documents of a dense accumulator
+     *  indexed by docID, among those seen, in order of decreasing score.
+     */
+    public static PostingsList topResults( float[] scores, boolean[] seen, int k ) {
+	ResultHeap heap = new ResultHeap( k );
+	for ( int d=0; d<scores.length; d++ ) {
+	    if ( seen[d] ) {
+		heap.offer( d, scores[d] );
+	    }
+	}
+	return heap.toPostingsList();
+    }
+
+
+    /** True if the document ranks above the one at heap position i. */
+    private boolean better( int docID, double score, int i ) {
+	return score > scores[i] || ( score == scores[i] && docID < docIDs[i] );
+    }
+
+
+    private void siftUp( int i ) {
+	while ( i > 0 ) {
+	    int parent = (i-1) / 2;
+	    if ( !better( docIDs[parent], scores[parent], i )) {
+		break;
+	    }
+	    swap( i, parent );
+	    i = parent;
+	}
+    }
+
+
+    private void siftDown( int i ) {
+	while ( true ) {
+	    int worst = i;
+	    int left = 2*i + 1;
+	    int right = left + 1;
+	    if ( left < size && better( docIDs[worst], scores[worst], left )) {
+		worst = left;
+	    }
+	    if ( right < size && better( docIDs[worst], scores[worst], right )) {
+		worst = right;
+	    }
+	    if ( worst == i ) {
+		return;
+	    }
+	    swap( i, worst );
+	    i = worst;
+	}
+    }
+
+
+    private void swap( int i, int j ) {
+	int docID = docIDs[i];
+	docIDs[i] = docIDs[j];
+	docIDs[j] = docID;
+	double score = scores[i];
+	scores[i] = scores[j];
+	scores[j] = score;
+    }
+}
@@ -47,6 +47,9 @@ public class SearchGUI extends JFrame {
     /**  The ranking type (either tf-idf, pagerank, or combination). */
     int rankingType = Index.TF_IDF;
 		
+    /**  The number of documents a ranked search shows at most (option -k). */
+    int maxResults = 100;
+
     /**  The word structure type (either unigram, bigram, or subphrase). */
     int structureType = Index.UNIGRAM;
 		
@@ -57,6 +60,7 @@ public class SearchGUI extends JFrame {
     // public static final String homeDir = "/users/hampus/code/sokmotor";
     public static final String homeDir = "/info/DD2476/ir16/lab";
 
+    /**  If true (option -i), index the directories even if there is a saved index. */
     private static boolean index = false;
 
 
@@ -180,6 +184,7 @@ public class SearchGUI extends JFrame {
 		    // Normalize the search string and turn it into a Query
 		    String queryString = SimpleTokenizer.normalize( queryWindow.getText() );
 		    query = new Query( queryString );
+		    query.maxResults = maxResults;
 		    // Search and print results. Access to the index is synchronized since
 		    // we don't want to search at the same time we're indexing new files
 		    // (this might corrupt the index).
@@ -191,16 +196,16 @@ public class SearchGUI extends JFrame {
 			buf.append( "\nFound " + results.size() + " matching document(s)\n\n" );
 			for ( int i=0; i<results.size(); i++ ) {
 			    buf.append( " " + i + ". " );
-			    String filename = indexer.index.docIDs.get( "" + results.get(i).docID );
+			    String filename = indexer.index.docIDs.get( "" + results.docID( i ));
 			    if ( filename == null ) {
-				buf.append( "" + results.get(i).docID );
+				buf.append( "" + results.docID( i ));
 			    }
 			    else {
 				buf.append( filename );
 			    }
 			    // System.out.println(filename);
 			    if ( queryType == Index.RANKED_QUERY ) {
-				buf.append( "   " + String.format( "%.5f", results.get(i).score )); 
+				buf.append( "   " + String.format( "%.5f", results.score( i ))); 
 			    }
 			    buf.append( "\n" );
 			}
@@ -241,14 +246,14 @@ public class SearchGUI extends JFrame {
 			buf.append( "\nFound " + results.size() + " matching document(s)\n\n" );
 			for ( int i=0; i<results.size(); i++ ) {
 			    buf.append( " " + i + ". " );
-			    String filename = indexer.index.docIDs.get( "" + results.get(i).docID );
+			    String filename = indexer.index.docIDs.get( "" + results.docID( i ));
 			    if ( filename == null ) {
-				buf.append( "" + results.get(i).docID );
+				buf.append( "" + results.docID( i ));
 			    }
 			    else {
 				buf.append( filename );
 			    }
-			    buf.append( "   " + String.format( "%.5f", results.get(i).score ) + "\n" );
+			    buf.append( "   " + String.format( "%.5f", results.score( i )) + "\n" );
 			}
 		    }
 		    else {
@@ -354,11 +359,20 @@ public class SearchGUI extends JFrame {
      */
     private void index() {
 	synchronized ( indexLock ) {
+	    if ( !index ) {
+		// Use the saved index if there is one, unless -i was given
+		resultWindow.setText( "\n  Reading index, please wait..." );
+		if ( indexer.index.readIndexFromDisk() ) {
+		    resultWindow.setText( "\n  Done!" );
+		    return;
+		}
+	    }
 	    resultWindow.setText( "\n  Indexing, please wait..." );
 	    for ( int i=0; i<dirNames.size(); i++ ) {
 		File dokDir = new File( dirNames.get( i ));
 		indexer.processFiles( dokDir, progressBar );
 	    }
+	    indexer.index.finishIndexing();
 	    resultWindow.setText( "\n  Done!" );
 	}
     };
@@ -371,22 +385,97 @@ public class SearchGUI extends JFrame {
      *   Decodes the command line arguments.
      */
     private void decodeArgs( String[] args ) {
+	// The options that set up a HashedIndex may come before -h
+	for ( String arg : args ) {
+	    if ( "-h".equals( arg )) {
+		indexer.index = new HashedIndex();
+	    }
+	}
 	int i=0, j=0;
 	while ( i < args.length ) {
 	    if ("-i".equals(args[i])) {
 		i++;
 		index = true;
+	    } else if ( "-h".equals( args[i] )) {
+		i++;
 	    } else if ( "-d".equals( args[i] )) {
 		i++;
 		if ( i < args.length ) {
 		    dirNames.add( args[i++] );
 		}
 	    }
+	    else if ( "-k".equals( args[i] )) {
+		i++;
+		if ( i < args.length ) {
+		    maxResults = Integer.parseInt( args[i++] );
+		}
+	    }
+	    else if ( "-b".equals( args[i] )) {
+		i++;
+		if ( i < args.length ) {
+		    int budget = Integer.parseInt( args[i] );
+		    hashedIndex( "-b" ).impactOrdered = true;
+		    hashedIndex( "-b" ).impactBudget = budget > 0 ? budget : Integer.MAX_VALUE;
+		}
+		i++;
+	    }
+	    else if ( "-c".equals( args[i] )) {
+		i++;
+		if ( i < args.length ) {
+		    hashedIndex( "-c" ).championLists = true;
+		    hashedIndex( "-c" ).championListSize = Integer.parseInt( args[i] );
+		}
+		i++;
+	    }
+	    else if ( "-r".equals( args[i] )) {
+		i++;
+		if ( i < args.length ) {
+		    hashedIndex( "-r" ).championPagerankWeight = Double.parseDouble( args[i] );
+		}
+		i++;
+	    }
+	    else if ( "-p".equals( args[i] )) {
+		i++;
+		hashedIndex( "-p" );
+		indexer.setPagerankOrder( true );
+	    }
+	    else if ( "-y".equals( args[i] )) {
+		i++;
+		if ( i < args.length ) {
+		    hashedIndex( "-y" ).personalizedBudget = Integer.parseInt( args[i] );
+		    hashedIndex( "-y" ).loadLinkGraph();
+		}
+		i++;
+	    }
+	    else if ( "-t".equals( args[i] )) {
+		i++;
+		if ( i < args.length ) {
+		    int threads = Integer.parseInt( args[i++] );
+		    if ( threads != 1 ) {
+			// Only a HashedIndex is built in parallel
+			hashedIndex( "-t" );
+		    }
+		    indexer.setThreads( threads );
+		}
+	    }
 	    else {
 		System.err.println( "Unknown option: " + args[i] );
 		break;
 	    }
 	}
+    }
+
+
+    /**
+     *   Returns the index for an option that only a HashedIndex has, or
+     *   exits if the index is not a HashedIndex (see -h).
+     */
+    private HashedIndex hashedIndex( String option ) {
+	if ( !( indexer.index instanceof HashedIndex )) {
+	    System.err.println( "Option " + option + " needs a HashedIndex, given by -h" );
+	    System.exit( 1 );
+	}
+	return (HashedIndex) indexer.index;
     }				    
 
 
@@ -9,6 +9,7 @@ package ir;
 
 import java.io.Reader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 
 public class SimpleTokenizer {
@@ -21,6 +22,16 @@ public class SimpleTokenizer {
 
     /** The reader from where tokens are read. */
     Reader reader;
+
+    /** 
+     *  The (memory-mapped) bytes from where tokens are read, or null if 
+     *  tokens are read from @code{reader}. The bytes are scanned in 
+     *  place, so only the characters of each token are copied.
+     */
+    ByteBuffer bytes;
+
+    /** The normalized characters of the token being read from @code{bytes}. */
+    char[] tokenBuf = new char[64];
     
     /** 
      *  Characters are read @code{BUFFER_LENGTH} characters at a
@@ -51,6 +62,41 @@ public class SimpleTokenizer {
     static final char[] translation =
     { 'a', 'a', 'a', '', '', 'e', 'e', 'e', 'i', 'n', '', 'o', '', 'u', 'u', 'u', '', '', '', '', '', '', '', '', '', '', '#' };
 
+    /** 
+     *  The normalized counterpart of every character, or 0 for characters 
+     *  that cannot occur in a token. Built from the rules above, so that
+     *  normalizing a character is a single table lookup.
+     */
+    static final char[] normalized = new char[65536];
+
+
+
+    /** 
+     *  The character of each byte read from @code{bytes}. Bytes are read as
+     *  ISO-8859-1, except for the windows-1252 characters that normalize
+     *  knows how to translate.
+     */
+    static final char[] byte_char = new char[256];
+
+    static {
+	for ( char c='0'; c<='9'; c++ ) {
+	    normalized[c] = c;
+	}
+	for ( char c='a'; c<='z'; c++ ) {
+	    normalized[c] = c;
+	    normalized[c-32] = c;
+	}
+	for ( int i=special_char.length-1; i>=0; i-- ) {
+	    normalized[special_char[i]] = translation[i];
+	}
+	for ( int i=0; i<256; i++ ) {
+	    byte_char[i] = (char)i;
+	}
+	byte_char[0x84] = 8222;
+	byte_char[0x96] = 8211;
+	byte_char[0x98] = 732;
+    }
+
 
 
     public SimpleTokenizer( Reader reader ) {
@@ -58,6 +104,11 @@ public class SimpleTokenizer {
     }
 
 
+    public SimpleTokenizer( ByteBuffer bytes ) {
+	this.bytes = bytes;
+    }
+
+
     /**
      *  Normalizes strings by converting to lower-case and removing 
      *  diacritics. Non-normalizable characters are translated into
@@ -84,24 +135,12 @@ public class SimpleTokenizer {
      */
 
     public static boolean normalize( char[] buf, int ptr ) {
-	char c = buf[ptr];
-	if (( c >= '0' && c <= '9' ) ||
-	    ( c >= 'a' && c <= 'z' )) {
-	    return true;
-	}
-	else if ( c >= 'A' && c <= 'Z' ) {
-	    buf[ptr] = (char)(c+32);
-	    return true;
-	}
-	else {
-	    for ( int i=0; i<special_char.length; i++ ) {
-		if ( special_char[i] == c ) {
-		    buf[ptr] = translation[i];
-		    return true;
-		}
-	    }
+	char c = normalized[buf[ptr]];
+	if ( c == 0 ) {
 	    return false;
 	}
+	buf[ptr] = c;
+	return true;
     }
 
 
@@ -127,14 +166,14 @@ public class SimpleTokenizer {
 	if ( !started_reading ) {
 	    s = readToken();
 	    if ( s != null ) {
-		s = s.replaceAll( "#", "" );
+		s = removeHashes( s );
 		nextTok = readToken();
 	    }
 	    return s;
 	}
 	else {
 	    if ( nextTok != null ) {
-		s = nextTok.replaceAll( "#", "" );
+		s = removeHashes( nextTok );
 	    }
 	    nextTok = readToken();
 	    return s;
@@ -143,9 +182,43 @@ public class SimpleTokenizer {
 
 
     /**
-     *  Reads the next token. 
+     *  Reads the next token and interns it in @code{dictionary}. When 
+     *  reading from bytes, no objects are created unless the token is 
+     *  a new term. This method should not be mixed with hasMoreTokens 
+     *  and nextToken on the same tokenizer.
+     *
+     *  @return the term ID of the next token, or -1 if there are no
+     *  more tokens.
+     */
+    public int nextTermID( TermDictionary dictionary ) throws IOException {
+	if ( bytes == null ) {
+	    String s = nextToken();
+	    return s == null ? -1 : dictionary.intern( s );
+	}
+	int length = scanToken();
+	return length < 0 ? -1 : dictionary.intern( tokenBuf, length );
+    }
+
+
+    /**
+     *  Removes the '#' characters that some special characters are 
+     *  translated into.
+     */
+    private static String removeHashes( String s ) {
+	return s.indexOf( '#' ) < 0 ? s : s.replace( "#", "" );
+    }
+
+
+    /**
+     *  Reads the next token. A token that runs up to the very end of
+     *  the text is returned too, as readTokenFromBytes does, so a PDF
+     *  read through the Reader gives the same tokens as the same text
+     *  in a plain file.
      */ 
     private String readToken() throws IOException {
+	if ( bytes != null ) {
+	    return readTokenFromBytes();
+	}
 	if ( started_reading && buf[ptr] == 0 ) {
 	    // No more tokens to be read
 	    return null;
@@ -198,7 +271,58 @@ public class SimpleTokenizer {
 		return token_found;
 	    }
 	}
-	return null;
+	if ( tokenStart >= 0 ) {
+	    // The text ends in the middle of a token, which the first
+	    // versions of this tokenizer dropped
+	    token_found = new String( buf, tokenStart, ptr-tokenStart );
+	    tokenStart = -1;
+	}
+	return token_found;
+    }
+
+
+    /**
+     *  Reads the next token from @code{bytes}, starting at @code{ptr}. 
+     */ 
+    private String readTokenFromBytes() {
+	int length = scanToken();
+	if ( length < 0 ) {
+	    // No more tokens to be read
+	    return null;
+	}
+	return new String( tokenBuf, 0, length );
+    }
+
+
+    /**
+     *  Scans the next token in @code{bytes} and puts its normalized 
+     *  characters, without any '#', in @code{tokenBuf}.
+     *
+     *  @return the length of the token, or -1 if there are no more tokens.
+     */ 
+    private int scanToken() {
+	int limit = bytes.limit();
+	int length = -1;
+	while ( ptr < limit ) {
+	    char c = normalized[byte_char[bytes.get( ptr++ ) & 0xff]];
+	    if ( c != 0 ) {
+		if ( length < 0 ) {
+		    // A token starts here
+		    length = 0;
+		}
+		if ( c != '#' ) {
+		    if ( length == tokenBuf.length ) {
+			tokenBuf = java.util.Arrays.copyOf( tokenBuf, 2*length );
+		    }
+		    tokenBuf[length++] = c;
+		}
+	    }
+	    else if ( length >= 0 ) {
+		// End of token
+		break;
+	    }
+	}
+	return length;
     }
 
 
@@ -0,0 +1,104 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+
+package ir;
+
+import java.util.Arrays;
+
+
+/**
+ *   The document vector of a document: how many times each term occurs
+ *   in it, by term ID. The term IDs are the keys of an IntMap, and the
+ *   count of each is kept by its entry number, so counting a term
+ *   creates no objects.
+ */
+public class TermCounts {
+
+    /** The term IDs, as entries 0, 1, 2, ... in the order they were first counted. */
+    private final IntMap<Void> termIDs;
+
+    /** The count of each entry. */
+    private int[] counts;
+
+
+    public TermCounts() {
+	this( 16 );
+    }
+
+
+    /**
+     *  Creates a document vector with room for @code{capacity} terms
+     *  before it has to grow.
+     */
+    public TermCounts( int capacity ) {
+	termIDs = new IntMap<Void>( capacity );
+	counts = new int[Math.max( capacity, 1 )];
+    }
+
+
+    /**
+     *  Adds one occurrence of the term with ID @code{termID}.
+     */
+    public void add( int termID ) {
+	add( termID, 1 );
+    }
+
+
+    /**
+     *  Adds @code{count} occurrences of the term with ID @code{termID}.
+     */
+    public void add( int termID, int count ) {
+	int i = termIDs.add( termID );
+	if ( i == counts.length ) {
+	    counts = Arrays.copyOf( counts, 2*i );
+	}
+	counts[i] += count;
+    }
+
+
+    /**
+     *  Returns the number of occurrences of the term with ID
+     *  @code{termID}, or 0.
+     */
+    public int get( int termID ) {
+	int i = termIDs.find( termID );
+	return i < 0 ? 0 : counts[i];
+    }
+
+
+    /**
+     *  Returns the number of different terms.
+     */
+    public int size() {
+	return termIDs.size();
+    }
+
+
+    /**
+     *  Returns the term ID of entry @code{i}, 0 <= i < size().
+     */
+    public int termID( int i ) {
+	return termIDs.key( i );
+    }
+
+
+    /**
+     *  Returns the count of entry @code{i}, 0 <= i < size().
+     */
+    public int count( int i ) {
+	return counts[i];
+    }
+
+
+    /**
+     *  Replaces every term ID t by @code{newIDs[t]}, for instance to move
+     *  a document vector from the dictionary of a PartialIndex to
+     *  Index.dictionary. No two term IDs may get the same new ID.
+     */
+    public void renumber( int[] newIDs ) {
+	termIDs.renumber( newIDs );
+    }
+}
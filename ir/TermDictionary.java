@@ -0,0 +1,156 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */  
+
+
+package ir;
+
+import java.util.Arrays;
+
+
+/**
+ *   Maps terms to dense integer term IDs 0, 1, 2, ... in the order the
+ *   terms are first seen. Terms can be interned directly from a char
+ *   slice, so looking up a term that is already known creates no
+ *   objects. The dictionary is not thread-safe; every indexing thread
+ *   interns terms into a dictionary of its own.
+ */
+public class TermDictionary {
+
+    /** The term with each ID. */
+    private String[] terms = new String[1024];
+
+    /** The hash code of each term, same as String.hashCode(). */
+    private int[] hashes = new int[1024];
+
+    /** The number of terms. */
+    private int size = 0;
+
+    /** 
+     *  Open addressing hash table of term IDs plus one, where 0 marks an
+     *  empty slot. The length is always a power of two.
+     */
+    private int[] table = new int[2048];
+
+
+    /**
+     *  Returns the ID of the term in the first @code{length} chars of
+     *  @code{buf}, adding the term to the dictionary if it is new.
+     */
+    public int intern( char[] buf, int length ) {
+	int hash = 0;
+	for ( int i=0; i<length; i++ ) {
+	    hash = 31*hash + buf[i];
+	}
+	int mask = table.length - 1;
+	int slot = hash & mask;
+	while ( table[slot] != 0 ) {
+	    int id = table[slot] - 1;
+	    if ( hashes[id] == hash && matches( terms[id], buf, length )) {
+		return id;
+	    }
+	    slot = (slot+1) & mask;
+	}
+	return add( new String( buf, 0, length ), hash, slot );
+    }
+
+
+    /**
+     *  Returns the ID of @code{term}, adding it to the dictionary if
+     *  it is new.
+     */
+    public int intern( String term ) {
+	int hash = term.hashCode();
+	int mask = table.length - 1;
+	int slot = hash & mask;
+	while ( table[slot] != 0 ) {
+	    int id = table[slot] - 1;
+	    if ( hashes[id] == hash && terms[id].equals( term )) {
+		return id;
+	    }
+	    slot = (slot+1) & mask;
+	}
+	return add( term, hash, slot );
+    }
+
+
+    /**
+     *  Returns the ID of @code{term}, or -1 if the term is not in 
+     *  the dictionary.
+     */
+    public int lookup( String term ) {
+	int hash = term.hashCode();
+	int mask = table.length - 1;
+	int slot = hash & mask;
+	while ( table[slot] != 0 ) {
+	    int id = table[slot] - 1;
+	    if ( hashes[id] == hash && terms[id].equals( term )) {
+		return id;
+	    }
+	    slot = (slot+1) & mask;
+	}
+	return -1;
+    }
+
+
+    /**
+     *  Returns the term with ID @code{id}.
+     */
+    public String term( int id ) {
+	return terms[id];
+    }
+
+
+    /**
+     *  Returns the number of terms, which is also the next term ID.
+     */
+    public int size() {
+	return size;
+    }
+
+
+    private boolean matches( String term, char[] buf, int length ) {
+	if ( term.length() != length ) {
+	    return false;
+	}
+	for ( int i=0; i<length; i++ ) {
+	    if ( term.charAt( i ) != buf[i] ) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+
+    /**
+     *  Adds a new term in the empty @code{slot} of the hash table.
+     */
+    private int add( String term, int hash, int slot ) {
+	int id = size++;
+	if ( id == terms.length ) {
+	    terms = Arrays.copyOf( terms, 2*id );
+	    hashes = Arrays.copyOf( hashes, 2*id );
+	}
+	terms[id] = term;
+	hashes[id] = hash;
+	table[slot] = id + 1;
+	if ( 2*size > table.length ) {
+	    rehash( 2*table.length );
+	}
+	return id;
+    }
+
+
+    private void rehash( int tableLength ) {
+	table = new int[tableLength];
+	int mask = tableLength - 1;
+	for ( int id=0; id<size; id++ ) {
+	    int slot = hashes[id] & mask;
+	    while ( table[slot] != 0 ) {
+		slot = (slot+1) & mask;
+	    }
+	    table[slot] = id + 1;
+	}
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+package pagerank;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.StringTokenizer;
+
+/**
+ *   A link graph in a compact binary file, converted once from a link
+ *   file like linksDavis.txt and then loaded by memory mapping. The
+ *   offsets and links are read straight from the mapped file, so only
+ *   the names, when they are asked for, take up room on the heap.
+ *
+ *   The documents are numbered in the order they first appear in the
+ *   link file, as PageRank.readDocs numbers them. The file holds, as
+ *   big-endian ints, MAGIC, the number of documents n, the number of
+ *   links m, the n+1 offsets of the names, the n+1 offsets of the
+ *   outlinks and the m outlinks, sorted for each document and without
+ *   duplicates; then the names, in UTF-8.
+ */
+public class LinkGraph {
+
+    final static int MAGIC = 0x4c4e4b31;
+
+    /**
+     *   The suffix of graph files, which PageRank reads with load
+     *   rather than as link files.
+     */
+    public final static String SUFFIX = ".bin";
+
+    /**
+     *   The number of links convert keeps in memory at a time. Larger
+     *   link files are sorted in runs of this many links on disk, which
+     *   are then merged.
+     */
+    final static int RUN_SIZE = 1 << 22;
+
+    /**
+     *   The offsets of the names in nameBytes, views into the mapped file.
+     */
+    private final IntBuffer nameStart;
+    private final ByteBuffer nameBytes;
+
+    /**
+     *   The documents that document i links to are outLinks.get(k) for
+     *   outLinkStart.get(i) <= k < outLinkStart.get(i+1). Both are views
+     *   into the mapped file.
+     */
+    public final IntBuffer outLinkStart;
+    public final IntBuffer outLinks;
+
+
+    private LinkGraph( IntBuffer nameStart, ByteBuffer nameBytes, IntBuffer outLinkStart, IntBuffer outLinks ) {
+	this.nameStart = nameStart;
+	this.nameBytes = nameBytes;
+	this.outLinkStart = outLinkStart;
+	this.outLinks = outLinks;
+    }
+
+
+    /**
+     *   The number of documents.
+     */
+    public int size() {
+	return outLinkStart.limit() - 1;
+    }
+
+
+    /**
+     *   The name of document i, decoded from the mapped file.
+     */
+    public String name( int i ) {
+	int start = nameStart.get( i );
+	byte[] bytes = new byte[nameStart.get( i+1 ) - start];
+	for ( int k=0; k<bytes.length; k++ ) {
+	    bytes[k] = nameBytes.get( start + k );
+	}
+	return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+
+    /**
+     *   Loads a graph file by mapping it into memory. Nothing is read
+     *   until it is used.
+     */
+    public static LinkGraph load( String filename ) throws IOException {
+	RandomAccessFile file = new RandomAccessFile( filename, "r" );
+	try {
+	    FileChannel channel = file.getChannel();
+	    MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+	    if ( buffer.getInt() != MAGIC ) {
+		throw new IOException( filename + " is not a graph file" );
+	    }
+	    int n = buffer.getInt();
+	    int m = buffer.getInt();
+	    IntBuffer nameStart = slice( buffer, 12, n+1 );
+	    IntBuffer outLinkStart = slice( buffer, 12 + 4*(n+1), n+1 );
+	    IntBuffer outLinks = slice( buffer, 12 + 8*(n+1), m );
+	    buffer.position( 12 + 4 * (2*(n+1) + m) );
+	    ByteBuffer nameBytes = buffer.slice();
+	    return new LinkGraph( nameStart, nameBytes, outLinkStart, outLinks );
+	}
+	finally {
+	    file.close();
+	}
+    }
+
+
+    /**
+     *   The @code{size} ints at byte @code{position} of the buffer.
+     */
+    private static IntBuffer slice( ByteBuffer buffer, int position, int size ) {
+	ByteBuffer b = buffer.duplicate();
+	b.position( position );
+	b.limit( position + 4*size );
+	return b.slice().asIntBuffer();
+    }
+
+
+    /**
+     *   Converts the link file to the graph file if the graph file does
+     *   not exist or is older than the link file, as the link file may
+     *   have been changed since.
+     */
+    public static void convertIfStale( String linksFilename, String graphFilename ) throws IOException {
+	File graph = new File( graphFilename );
+	if ( !graph.exists() || graph.lastModified() < new File( linksFilename ).lastModified() ) {
+	    convert( linksFilename, graphFilename );
+	}
+    }
+
+
+    /**
+     *   Converts a link file, where each line is the name of a document,
+     *   a semicolon and the names of the documents it links to separated
+     *   by commas, to a graph file.
+     */
+    public static void convert( String linksFilename, String graphFilename ) throws IOException {
+	convert( linksFilename, graphFilename, RUN_SIZE );
+    }
+
+
+    /**
+     *   Converts a link file to a graph file, keeping at most
+     *   @code{runSize} links in memory. Only the names and the number of
+     *   outlinks of each document are kept for all documents; the links
+     *   are sorted in runs on disk next to the graph file and merged.
+     */
+    public static void convert( String linksFilename, String graphFilename, int runSize ) throws IOException {
+	HashMap<String,Integer> docNumber = new HashMap<String,Integer>();
+	String[] names = new String[1024];
+	// Each link as the document it is from in the high half and the one it is to in the low
+	long[] links = new long[Math.min( 1024, runSize )];
+	int n = 0, m = 0;
+	ArrayList<File> runs = new ArrayList<File>();
+	ArrayList<Integer> runSizes = new ArrayList<Integer>();
+	BufferedReader in = new BufferedReader( new FileReader( linksFilename ));
+	try {
+	    String line;
+	    while (( line = in.readLine()) != null ) {
+		int index = line.indexOf( ";" );
+		String title = line.substring( 0, index );
+		Integer fromdoc = docNumber.get( title );
+		if ( fromdoc == null ) {
+		    fromdoc = n;
+		    docNumber.put( title, n );
+		    names = ensureCapacity( names, n+1 );
+		    names[n++] = title;
+		}
+		StringTokenizer tok = new StringTokenizer( line.substring( index+1 ), "," );
+		while ( tok.hasMoreTokens() ) {
+		    String otherTitle = tok.nextToken();
+		    Integer otherDoc = docNumber.get( otherTitle );
+		    if ( otherDoc == null ) {
+			otherDoc = n;
+			docNumber.put( otherTitle, n );
+			names = ensureCapacity( names, n+1 );
+			names[n++] = otherTitle;
+		    }
+		    if ( m == runSize ) {
+			m = sortRun( links, m );
+			runs.add( writeRun( links, m, graphFilename ));
+			runSizes.add( m );
+			m = 0;
+		    }
+		    else if ( m == links.length ) {
+			links = Arrays.copyOf( links, Math.min( 2*m, runSize ));
+		    }
+		    links[m++] = ((long) fromdoc << 32) | otherDoc;
+		}
+	    }
+	}
+	catch ( IOException e ) {
+	    deleteRuns( runs );
+	    throw e;
+	}
+	finally {
+	    in.close();
+	}
+
+	if ( runs.isEmpty() ) {
+	    // Sorting the links puts them in compressed sparse row order
+	    m = sortRun( links, m );
+	    int[] outLinkStart = new int[n+1];
+	    int[] outLinks = new int[m];
+	    for ( int i=0; i<m; i++ ) {
+		outLinkStart[(int) (links[i] >>> 32) + 1]++;
+		outLinks[i] = (int) links[i];
+	    }
+	    for ( int i=0; i<n; i++ ) {
+		outLinkStart[i+1] += outLinkStart[i];
+	    }
+	    write( names, n, outLinkStart, outLinks, graphFilename );
+	}
+	else {
+	    try {
+		m = sortRun( links, m );
+		runs.add( writeRun( links, m, graphFilename ));
+		runSizes.add( m );
+		links = null;
+		mergeRuns( runs, runSizes, names, n, graphFilename );
+	    }
+	    finally {
+		deleteRuns( runs );
+	    }
+	}
+    }
+
+
+    /**
+     *   Sorts the first m links and removes the duplicates.
+     *
+     *   @return the number of links left.
+     */
+    private static int sortRun( long[] links, int m ) {
+	Arrays.sort( links, 0, m );
+	int k = 0;
+	for ( int i=0; i<m; i++ ) {
+	    if ( i == 0 || links[i] != links[i-1] ) {
+		links[k++] = links[i];
+	    }
+	}
+	return k;
+    }
+
+
+    /**
+     *   Writes the first m links to a new run file next to the graph file.
+     */
+    private static File writeRun( long[] links, int m, String graphFilename ) throws IOException {
+	File dir = new File( graphFilename ).getAbsoluteFile().getParentFile();
+	File run = File.createTempFile( "links", ".run", dir );
+	run.deleteOnExit();
+	DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( run )));
+	try {
+	    for ( int i=0; i<m; i++ ) {
+		out.writeLong( links[i] );
+	    }
+	}
+	finally {
+	    out.close();
+	}
+	return run;
+    }
+
+
+    /**
+     *   A run file read one link at a time.
+     */
+    private static class Run {
+	final DataInputStream in;
+	int remaining;
+	long link;
+
+	Run( File file, int size ) throws IOException {
+	    in = new DataInputStream( new BufferedInputStream( new FileInputStream( file )));
+	    remaining = size;
+	}
+
+	boolean next() throws IOException {
+	    if ( remaining == 0 ) {
+		return false;
+	    }
+	    remaining--;
+	    link = in.readLong();
+	    return true;
+	}
+    }
+
+
+    /**
+     *   Merges the sorted runs into the graph file. The outlinks are
+     *   first written to a file of their own while the outlinks of each
+     *   document are counted, as the offsets come before them in the
+     *   graph file.
+     */
+    private static void mergeRuns( ArrayList<File> runFiles, ArrayList<Integer> runSizes,
+				   String[] names, int n, String graphFilename ) throws IOException {
+	PriorityQueue<Run> queue = new PriorityQueue<Run>( runFiles.size(), new Comparator<Run>() {
+		public int compare( Run a, Run b ) {
+		    return Long.compare( a.link, b.link );
+		}
+	    });
+	ArrayList<Run> runs = new ArrayList<Run>();
+	File outLinksFile = new File( graphFilename + ".links" );
+	int[] outLinkStart = new int[n+1];
+	try {
+	    for ( int i=0; i<runFiles.size(); i++ ) {
+		Run run = new Run( runFiles.get( i ), runSizes.get( i ));
+		runs.add( run );
+		if ( run.next() ) {
+		    queue.add( run );
+		}
+	    }
+	    DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( outLinksFile )));
+	    try {
+		long last = -1;
+		while ( !queue.isEmpty() ) {
+		    Run run = queue.poll();
+		    if ( run.link != last ) {
+			last = run.link;
+			outLinkStart[(int) (last >>> 32) + 1]++;
+			out.writeInt( (int) last );
+		    }
+		    if ( run.next() ) {
+			queue.add( run );
+		    }
+		}
+	    }
+	    finally {
+		out.close();
+	    }
+	    for ( int i=0; i<n; i++ ) {
+		outLinkStart[i+1] += outLinkStart[i];
+	    }
+
+	    DataInputStream links = new DataInputStream( new BufferedInputStream( new FileInputStream( outLinksFile )));
+	    try {
+		write( names, n, outLinkStart, null, links, graphFilename );
+	    }
+	    finally {
+		links.close();
+	    }
+	}
+	finally {
+	    for ( Run run : runs ) {
+		run.in.close();
+	    }
+	    outLinksFile.delete();
+	}
+    }
+
+
+    private static void deleteRuns( ArrayList<File> runs ) {
+	for ( File run : runs ) {
+	    run.delete();
+	}
+    }
+
+
+    /**
+     *   Writes the first n names and the links between those documents
+     *   to a graph file.
+     */
+    public static void write( String[] names, int n, int[] outLinkStart, int[] outLinks,
+			      String graphFilename ) throws IOException {
+	write( names, n, outLinkStart, outLinks, null, graphFilename );
+    }
+
+
+    /**
+     *   Writes a graph file, with the outlinks from @code{outLinks} or,
+     *   if it is null, read one by one from @code{outLinksIn}.
+     */
+    private static void write( String[] names, int n, int[] outLinkStart, int[] outLinks,
+			       DataInputStream outLinksIn, String graphFilename ) throws IOException {
+	int k = outLinkStart[n];
+	byte[][] nameBytes = new byte[n][];
+	int[] nameStart = new int[n+1];
+	for ( int i=0; i<n; i++ ) {
+	    nameBytes[i] = names[i].getBytes( StandardCharsets.UTF_8 );
+	    nameStart[i+1] = nameStart[i] + nameBytes[i].length;
+	}
+
+	DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( graphFilename )));
+	try {
+	    out.writeInt( MAGIC );
+	    out.writeInt( n );
+	    out.writeInt( k );
+	    for ( int start : nameStart ) {
+		out.writeInt( start );
+	    }
+	    for ( int start : outLinkStart ) {
+		out.writeInt( start );
+	    }
+	    for ( int i=0; i<k; i++ ) {
+		out.writeInt( outLinks != null ? outLinks[i] : outLinksIn.readInt() );
+	    }
+	    for ( byte[] bytes : nameBytes ) {
+		out.write( bytes );
+	    }
+	}
+	finally {
+	    out.close();
+	}
+	System.err.println( "Wrote " + n + " documents and " + k + " links to " + graphFilename );
+    }
+
+
+    private static String[] ensureCapacity( String[] array, int size ) {
+	return size <= array.length ? array : Arrays.copyOf( array, 2*array.length );
+    }
+
+
+    public static void main( String[] args ) {
+	if ( args.length != 2 && args.length != 3 ) {
+	    System.err.println( "Please give the name of the link file and of the graph file to write," );
+	    System.err.println( "and optionally the number of links to sort in memory at a time" );
+	}
+	else {
+	    try {
+		convert( args[0], args[1], args.length == 3 ? Integer.parseInt( args[2] ) : RUN_SIZE );
+	    }
+	    catch ( IOException e ) {
+		e.printStackTrace();
+	    }
+	}
+    }
+}
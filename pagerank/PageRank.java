@@ -7,14 +7,23 @@
 package pagerank;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.io.*;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 public class PageRank{
 
-    Random random = new Random();
+    /**
+     *   Gives the seeds of the Monte Carlo simulations.
+     */
+    SplittableRandom random = new SplittableRandom();
     /**  
      *   Maximal number of documents. We're assuming here that we
-     *   don't have more docs than we can keep in main memory.
+     *   don't have more docs than we can keep in main memory; for
+     *   bigger graphs, see StreamingPageRank.
      */
     final static int MAX_NUMBER_OF_DOCS = 2000000;
 
@@ -31,7 +40,7 @@ public class PageRank{
     /**
      *   Mapping from document numbers to document names
      */
-    String[] docName = new String[MAX_NUMBER_OF_DOCS];
+    String[] docName = new String[1024];
 
     /**  
      *   A memory-efficient representation of the transition matrix.
@@ -49,7 +58,37 @@ public class PageRank{
     /**
      *   The number of outlinks from each node.
      */
-    int[] out = new int[MAX_NUMBER_OF_DOCS];
+    int[] out = new int[1024];
+
+    /**
+     *   The links in compressed sparse row form, by the document linked
+     *   from: document i links to outLinks[k] for outLinkStart[i] <= k <
+     *   outLinkStart[i+1], in increasing order. Read from a graph file,
+     *   or built from @code{link} by buildOutLinks.
+     */
+    int[] outLinkStart;
+    int[] outLinks;
+
+    /**
+     *   The links in compressed sparse row form, by the document linked
+     *   to: the documents that link to document i are inLinks[k] for
+     *   inLinkStart[i] <= k < inLinkStart[i+1], in increasing order.
+     *   Built from outLinks by buildInLinks.
+     */
+    int[] inLinkStart;
+    int[] inLinks;
+
+    /**
+     *   The walker for the Monte Carlo methods, built from @code{link}
+     *   the first time one of them is run.
+     */
+    RandomWalks walks;
+
+    /**
+     *   The personalized pagerank over the links read, built the first
+     *   time it is asked for.
+     */
+    PersonalizedPageRank personalized;
 
     /**
      *   The number of documents with no outlinks.
@@ -75,24 +114,144 @@ public class PageRank{
     final static int MAX_NUMBER_OF_ITERATIONS = 1000;
 
     final static String PAGERANK_FILENAME = "pagerank/pagerank.txt";
+
+    final static String LINKS_FILENAME = "pagerank/linksDavis.txt";
+
+    /**
+     *   The Davis link graph, converted by LinkGraph. It is read instead
+     *   of linksDavis.txt when it exists.
+     */
+    final static String GRAPH_FILENAME = "pagerank/linksDavis" + LinkGraph.SUFFIX;
+
+    /**
+     *   The number of documents in each block of the power iteration.
+     *   Sums over all documents are added up block by block, in block
+     *   order, so they come out the same however many threads are used.
+     */
+    final static int BLOCK_SIZE = 4096;
+
+    /**
+     *   The pool that runs the blocks of the power iteration and the
+     *   Monte Carlo walks, or null to run them on the calling thread.
+     */
+    ForkJoinPool pool = null;
+
+    /**
+     *   The solvers of the exact computation: the power iteration, in
+     *   place Gauss-Seidel sweeps, the power iteration with quadratic
+     *   extrapolation every EXTRAPOLATION_PERIOD iterations, and the
+     *   adaptive power iteration, which stops recomputing the documents
+     *   whose rank has settled.
+     */
+    final static int POWER = 0;
+    final static int GAUSS_SEIDEL = 1;
+    final static int EXTRAPOLATED = 2;
+    final static int ADAPTIVE = 3;
+    final static String[] SOLVER_NAMES = { "power", "gauss-seidel", "extrapolated", "adaptive" };
+
+    final static int EXTRAPOLATION_PERIOD = 5;
+
+    /**
+     *   The solver that exactPagerank uses.
+     */
+    int solver = POWER;
     
     /* --------------------------------------------- */
 
     // Constructor used by HashedIndex.
     public PageRank() {
-	int noOfDocs = readDocs( "pagerank/linksDavis.txt" );
+	String links = GRAPH_FILENAME;
+	try {
+	    LinkGraph.convertIfStale( LINKS_FILENAME, GRAPH_FILENAME );
+	}
+	catch ( IOException e ) {
+	    e.printStackTrace();
+	    links = LINKS_FILENAME;
+	}
+	int noOfDocs = readDocs( links );
 	try {
 	    pageranks = readFromDisk(noOfDocs);
 	    buildFilenames();
-	    System.out.println("Got them pageranks here yo");
 	} catch (Exception e) {
 	    e.printStackTrace();
 	}
     }
 
     public PageRank( String filename ) {
+	this( filename, 1 );
+    }
+
+    /**
+     *   Computes the pagerank with @code{threads} threads, or one per
+     *   processor if it is 0.
+     */
+    public PageRank( String filename, int threads ) {
+	this( filename, threads, POWER );
+    }
+
+    /**
+     *   Computes the pagerank with @code{threads} threads, or one per
+     *   processor if it is 0, and the exact pagerank with @code{solver}.
+     */
+    public PageRank( String filename, int threads, int solver ) {
+	this( threads );
+	this.solver = solver;
 	int noOfDocs = readDocs( filename );
 	computePagerank( noOfDocs );
+	if ( pool != null ) {
+	    pool.shutdown();
+	}
+    }
+
+    /**
+     *   Sets up @code{threads} threads, or one per processor if it is 0,
+     *   without reading or computing anything (see PageRankBenchmark).
+     */
+    PageRank( int threads ) {
+	if ( threads == 0 ) {
+	    threads = Runtime.getRuntime().availableProcessors();
+	}
+	if ( threads > 1 ) {
+	    pool = new ForkJoinPool( threads );
+	}
+    }
+
+    /**
+     *   Updates the pagerank in PAGERANK_FILENAME, computed for the links
+     *   in the graph file @code{filename}, after the changes in
+     *   @code{batchFilename} (see updatePagerank), and rewrites the graph
+     *   file with the changes. Only a graph file can be updated, since the
+     *   new documents are numbered after the old ones, which a link file
+     *   changed by hand would not keep to.
+     *
+     *   Both files are written next to the old ones first and then
+     *   renamed, the graph file first, so a failed update leaves the
+     *   graph file and the pagerank as they were.
+     */
+    public PageRank( String filename, String batchFilename ) {
+	if ( !filename.endsWith( LinkGraph.SUFFIX )) {
+	    System.err.println( "Only a graph file can be updated; convert " + filename + " with LinkGraph first" );
+	    return;
+	}
+	int noOfDocs = readDocs( filename );
+	if ( noOfDocs == 0 ) {
+	    return;
+	}
+	File newGraph = new File( filename + ".new" );
+	File newPagerank = new File( PAGERANK_FILENAME + ".new" );
+	try {
+	    double[] x = updatePagerank( batchFilename, noOfDocs );
+	    LinkGraph.write( docName, x.length, outLinkStart, outLinks, newGraph.getPath() );
+	    writeToDisk( x, x.length, newPagerank.getPath() );
+	    Files.move( newGraph.toPath(), new File( filename ).toPath(),
+			StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	    Files.move( newPagerank.toPath(), new File( PAGERANK_FILENAME ).toPath(),
+			StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	} catch ( Exception e ) {
+	    e.printStackTrace();
+	    newGraph.delete();
+	    newPagerank.delete();
+	}
     }
 
 
@@ -105,9 +264,15 @@ public class PageRank{
      *   zeroes (that indicate direct links) and NO_LINK (if there is no
      *   direct link. <p>
      *
+     *   A graph file, with the suffix LinkGraph.SUFFIX, is read with
+     *   readGraph instead.
+     *
      *   @return the number of documents read.
      */
     int readDocs( String filename ) {
+	if ( filename.endsWith( LinkGraph.SUFFIX )) {
+	    return readGraph( filename );
+	}
 	int fileIndex = 0;
 	try {
 	    System.err.print( "Reading file... " );
@@ -120,6 +285,7 @@ public class PageRank{
 		//  Have we seen this document before?
 		if ( fromdoc == null ) {	
 		    // This is a previously unseen doc, so add it to the table.
+		    ensureCapacity( fileIndex+1 );
 		    fromdoc = fileIndex++;
 		    docNumber.put( title, fromdoc );
 		    docName[fromdoc] = title;
@@ -131,6 +297,7 @@ public class PageRank{
 		    Integer otherDoc = docNumber.get( otherTitle );
 		    if ( otherDoc == null ) {
 			// This is a previousy unseen doc, so add it to the table.
+			ensureCapacity( fileIndex+1 );
 			otherDoc = fileIndex++;
 			docNumber.put( otherTitle, otherDoc );
 			docName[otherDoc] = otherTitle;
@@ -169,255 +336,807 @@ public class PageRank{
     }
 
 
-    /* --------------------------------------------- */
+    /**
+     *   Makes docName and out big enough for @code{size} documents.
+     */
+    private void ensureCapacity( int size ) {
+	if ( size > out.length ) {
+	    int length = Math.min( Math.max( size, 2*out.length ), MAX_NUMBER_OF_DOCS );
+	    docName = Arrays.copyOf( docName, length );
+	    out = Arrays.copyOf( out, length );
+	}
+    }
 
-    // Method 1
-    double[] endpointRandomStart(int n, int N) {
-	double[] pagerank = new double[n];
 
-	for (int i = 0; i < N; ++i) {
-	    pagerank[walk(randomPage(n), n)] += 1;
+    /**
+     *   Reads a graph file written by LinkGraph.convert. The links are
+     *   copied from the mapped file straight into outLinkStart and
+     *   outLinks rather than into @code{link}.
+     *
+     *   @return the number of documents read.
+     */
+    int readGraph( String filename ) {
+	try {
+	    System.err.print( "Reading graph... " );
+	    LinkGraph graph = LinkGraph.load( filename );
+	    int n = graph.size();
+	    docName = new String[n];
+	    out = new int[n];
+	    outLinkStart = new int[n+1];
+	    outLinks = new int[graph.outLinks.limit()];
+	    graph.outLinkStart.duplicate().get( outLinkStart );
+	    graph.outLinks.duplicate().get( outLinks );
+	    for ( int i=0; i<n; i++ ) {
+		docName[i] = graph.name( i );
+		docNumber.put( docName[i], i );
+		out[i] = outLinkStart[i+1] - outLinkStart[i];
+		if ( out[i] == 0 )
+		    numberOfSinks++;
+	    }
+	    System.err.println( "done. Read " + n + " number of documents" );
+	    return n;
 	}
-
-	for (int i = 0; i < n; ++i) {
-	    pagerank[i] /= (double) N;
+	catch ( IOException e ) {
+	    System.err.println( "Error reading file " + filename );
+	    return 0;
 	}
-
-	return pagerank;
-	// printTop(pagerank, 50);
     }
 
-    // Method 2
-    double[] endpointCyclicStart(int n, int m) {
-	int N = n * m;
-	double[] pagerank = new double[n];
 
-	for (int i = 0; i < n; ++i) {
-	    for (int j = 0; j < m; ++j) {
-		pagerank[walk(i, n)] += 1;
-	    }
-	}
+    /* --------------------------------------------- */
 
-	for (int i = 0; i < n; ++i) {
-	    pagerank[i] /= N;
-	}
+    // Method 1
+    double[] endpointRandomStart(int n, int N) {
+	return normalize(walks(n).visits(N, 0, 0, false, random.nextLong()), N);
+    }
 
-	return pagerank;
+    // Method 2
+    double[] endpointCyclicStart(int n, int m) {
+	long N = (long) n * m;
+	return normalize(walks(n).visits(N, m, 0, false, random.nextLong()), N);
     }
 
     // Method 3
     double[] completePath(int n, int m, int T) {
-	int N = n * m;
-	double[] pagerank = new double[n];
+	long N = (long) n * m;
+	return normalize(walks(n).visits(N, m, T, false, random.nextLong()), N * T);
+    }
 
-	for (int i = 0; i < n; ++i) {
-	    for (int j = 0; j < m; ++j) {
-		completeWalk(i, n, pagerank, 1, T, false);
+    // Method 4
+    double[] completePathDangling(int n, int m, int T) {
+	long N = (long) n * m;
+	return normalize(walks(n).visits(N, m, T, true, random.nextLong()), 0);
+    }
+
+    // Method 5
+    double[] completePathRandomStart(int n, int N, int T) {
+	return normalize(walks(n).visits(N, 0, T, true, random.nextLong()), 0);
+    }
+
+    /**
+     *   Divides the visits by @code{total}, or by the number of visits
+     *   if it is 0.
+     */
+    private double[] normalize(long[] visits, long total) {
+	if (total == 0) {
+	    for (long v : visits) {
+		total += v;
 	    }
 	}
-
-	for (int i = 0; i < n; ++i) {
-	    pagerank[i] /= (N * T);
+	double[] pagerank = new double[visits.length];
+	for (int i = 0; i < visits.length; ++i) {
+	    pagerank[i] = visits[i] / (double) total;
 	}
-
 	return pagerank;
     }
 
-    // Method 4
-    double[] completePathDangling(int n, int m, int T) {
-	int N = n * m;
-	double[] pagerank = new double[n];
-
-	for (int i = 0; i < n; ++i) {
-	    for (int j = 0; j < m; ++j) {
-		completeWalk(i, n, pagerank, 1, T, true);
-	    }
+    /**
+     *   Returns the walker over the links between the first n documents,
+     *   building it the first time.
+     */
+    private RandomWalks walks(int n) {
+	if (walks == null) {
+	    buildOutLinks(n);
+	    walks = new RandomWalks(outLinkStart, outLinks, pool);
 	}
+	return walks;
+    }
 
-	double numberOfVisits = 0;
-	for (int i = 0; i < n; ++i) {
-	    numberOfVisits += pagerank[i];
+    /*
+     *   Computes the pagerank of each document, writes it to
+     *   PAGERANK_FILENAME and prints the top 50. The saved pagerank is
+     *   only read by the constructor used by HashedIndex; the Monte Carlo
+     *   methods are compared with it by PageRankBenchmark.  */
+    void computePagerank( int numberOfDocs ) {
+	printTop(exactPagerank(numberOfDocs), 50);
+    }
+
+    public double getPageRank(String filepath) {
+	int docN = getDocNumber(filepath);
+	if (docN < 0) {
+	    return -1;
 	}
+	return pageranks[docN];
+    }
 
-	for (int i = 0; i < n; ++i) {
-	    pagerank[i] /= numberOfVisits;
+    /**
+     *   Returns the number of the document with this path in the link
+     *   graph, or -1 if it is not in it.
+     */
+    public int getDocNumber(String filepath) {
+	String documentName = filenames.get(fileKey(filepath)); 
+	if (documentName == null) {
+	    return -1;
 	}
 
-	return pagerank;
+	Integer docN = docNumber.get(documentName);
+	return docN == null ? -1 : docN;
     }
 
-    // Method 5
-    double[] completePathRandomStart(int n, int N, int T) {
-	double[] pagerank = new double[n];
+    /**
+     *   Returns the name of the file at a path, without the directory and
+     *   the ".f", which is how articleTitles.txt names it.
+     */
+    static String fileKey(String filepath) {
+	return filepath.substring(filepath.lastIndexOf("/") + 1, filepath.length() - 2);
+    }
 
-	for (int i = 0; i < N; ++i) {
-	    completeWalk(randomPage(n), n, pagerank, 1, T, true);
+    /**
+     *   Writes the pagerank of every article in articleTitles.txt that is
+     *   in the link graph to a PageRankStore.
+     */
+    void writeStore(String filename) throws IOException {
+	int n = 0;
+	String[] names = new String[filenames.size()];
+	int[] numbers = new int[names.length];
+	float[] scores = new float[names.length];
+	for (Map.Entry<String,String> entry : filenames.entrySet()) {
+	    Integer docN = docNumber.get(entry.getValue());
+	    if (docN == null)
+		continue;
+	    names[n] = entry.getKey();
+	    numbers[n] = docN;
+	    scores[n] = (float) pageranks[docN];
+	    n++;
 	}
+	PageRankStore.write(Arrays.copyOf(names, n), Arrays.copyOf(numbers, n), Arrays.copyOf(scores, n), filename);
+    }
 
-	double numberOfVisits = 0;
-	for (int i = 0; i < n; ++i) {
-	    numberOfVisits += pagerank[i];
+    /**
+     *   The number of documents in the link graph.
+     */
+    public int numberOfDocs() {
+	return docNumber.size();
+    }
+
+    /**
+     *   Returns the personalized pagerank over the links read.
+     */
+    public synchronized PersonalizedPageRank personalized() {
+	if (personalized == null) {
+	    buildOutLinks(numberOfDocs());
+	    personalized = new PersonalizedPageRank(IntBuffer.wrap(outLinkStart), IntBuffer.wrap(outLinks));
 	}
+	return personalized;
+    }
 
-	for (int i = 0; i < n; ++i) {
-	    pagerank[i] /= numberOfVisits;
+    private void buildFilenames() throws FileNotFoundException, IOException {
+	String articleTitlesPath = "pagerank/articleTitles.txt";
+	BufferedReader reader = new BufferedReader(new FileReader(articleTitlesPath));
+	String line;
+	while ((line = reader.readLine()) != null) {
+	    String[] split = line.split(";");
+	    filenames.put(split[1], split[0]);
 	}
+    }
 
-	return pagerank;
+
+    /**
+     *   Computes the exact pagerank with the solver and writes it to
+     *   PAGERANK_FILENAME. The solvers stop when an iteration changes the
+     *   ranks by less than EPSILON, and report the number of iterations
+     *   and the time they took.
+     */
+    private double[] exactPagerank(int numberOfDocs) {
+	long start = System.nanoTime();
+	int[] iterations = new int[1];
+	double[] x = solve(numberOfDocs, iterations);
+	System.err.println(SOLVER_NAMES[solver] + ": " + iterations[0] + " iterations, "
+			   + (System.nanoTime() - start) / 1000000 + " ms");
+
+	try {
+	    writeToDisk(x, numberOfDocs);
+	} catch (Exception e) {
+	    e.printStackTrace();
+	}	return x;
     }
 
-    int walk(int page, int n) {
-	double x = random.nextDouble();
-	// Terminate walk.
-	if (x <= BORED)
-	    return page;
+    /**
+     *   Computes the exact pagerank with the solver.
+     *
+     *   @param iterations Where the number of iterations is put.
+     */
+    double[] solve(int numberOfDocs, int[] iterations) {
+	buildInLinks(numberOfDocs);
+	switch (solver) {
+	case GAUSS_SEIDEL:
+	    return gaussSeidel(numberOfDocs, iterations);
+	case EXTRAPOLATED:
+	    return extrapolatedPower(numberOfDocs, iterations);
+	case ADAPTIVE:
+	    return adaptivePower(numberOfDocs, iterations);
+	default:
+	    return power(numberOfDocs, iterations);
+	}
+    }
 
-	// No outlinks, terminate.
-	if (out[page] == 0) 
-	    return walk(randomPage(n), n);
+    /**
+     *   The power iteration. The transition matrix is never formed: each
+     *   document gets 1-BORED of the rank of the documents linking to it,
+     *   split evenly over their outlinks, and the rank of the sinks and
+     *   the BORED part of all rank are spread evenly over all documents.
+     *   An iteration thus takes time proportional to the number of links.
+     *   The documents are processed in blocks of BLOCK_SIZE, in parallel
+     *   if there is a pool.
+     *
+     *   @param iterations Where the number of iterations is put.
+     */
+    private double[] power(int numberOfDocs, int[] iterations) {
+	double[] x = new double[numberOfDocs];
+	double[] xPrime = new double[numberOfDocs];
+	xPrime[0] = 1;
+	double[] share = new double[numberOfDocs];
 
-	return walk(randomPageFrom(page), n);
+	double delta = diffNorm(x, xPrime);
+	int k = 0;
+	for (; k < MAX_NUMBER_OF_ITERATIONS && delta > EPSILON; ++k) {
+	    double[] previous = x;
+	    x = xPrime;
+	    xPrime = previous;
+	    delta = iterate(x, xPrime, share);
+	}
+	iterations[0] = k;
+	return xPrime;
     }
 
-    void completeWalk(int page, int n, double[] pagerank, int t, int T, boolean dangling) {
-	pagerank[page] += 1;
+    /**
+     *   Gauss-Seidel sweeps over the documents, which use the new ranks
+     *   of the documents before them in the same sweep and so need fewer
+     *   sweeps than the power iteration needs iterations. The ranks are
+     *   solved from x = (1-BORED) (links + sinks / n) + BORED / n, the
+     *   linear system the power iteration converges to when the ranks add
+     *   up to 1, with the rank of the sinks kept up to date as they change.
+     *   The sweeps are sequential, so they do not use the pool.
+     */
+    private double[] gaussSeidel(int numberOfDocs, int[] iterations) {
+	int n = numberOfDocs;
+	double[] x = new double[n];
+	x[0] = 1;
+	double[] share = new double[n];
+	double sinkRank = 0;
+	for (int j = 0; j < n; ++j) {
+	    if (out[j] == 0)
+		sinkRank += x[j];
+	    else
+		share[j] = x[j] / out[j];
+	}
 
-	if (t >= T)
-	    return;
+	double delta = Double.MAX_VALUE;
+	int k = 0;
+	for (; k < MAX_NUMBER_OF_ITERATIONS && delta > EPSILON; ++k) {
+	    double square = 0;
+	    for (int i = 0; i < n; ++i) {
+		double sum = 0;
+		for (int l = inLinkStart[i]; l < inLinkStart[i + 1]; ++l) {
+		    sum += share[inLinks[l]];
+		}
+		double rank = (1 - BORED) * (sum + sinkRank / n) + BORED / n;
+		double change = rank - x[i];
+		square += change * change;
+		x[i] = rank;
+		if (out[i] == 0)
+		    sinkRank += change;
+		else
+		    share[i] = rank / out[i];
+	    }
+	    delta = Math.sqrt(square);
+	}
+	iterations[0] = k;
+	return normalize(x);
+    }
 
-	double x = random.nextDouble();
+    /**
+     *   The power iteration, with the last four iterates extrapolated
+     *   every EXTRAPOLATION_PERIOD iterations, as in "Extrapolation
+     *   methods for accelerating PageRank computations" (Kamvar et al.).
+     *   The extrapolation assumes that the iterates are a mix of the
+     *   pagerank and the two largest other eigenvectors of the transition
+     *   matrix, and takes those out by least squares.
+     */
+    private double[] extrapolatedPower(int numberOfDocs, int[] iterations) {
+	// The last four iterates, the newest last
+	double[][] x = new double[4][numberOfDocs];
+	x[3][0] = 1;
+	double[] share = new double[numberOfDocs];
+
+	double delta = diffNorm(x[2], x[3]);
+	int k = 0;
+	for (; k < MAX_NUMBER_OF_ITERATIONS && delta > EPSILON; ++k) {
+	    double[] oldest = x[0];
+	    x[0] = x[1];
+	    x[1] = x[2];
+	    x[2] = x[3];
+	    x[3] = oldest;
+	    delta = iterate(x[2], x[3], share);
+	    if (k >= 3 && (k + 1) % EXTRAPOLATION_PERIOD == 0 && delta > EPSILON)
+		extrapolate(x);
+	}
+	iterations[0] = k;
+	return x[3];
+    }
 
-	if (x <= BORED) {
-	    completeWalk(randomPage(n), n, pagerank, t+1, T, dangling);
+    /**
+     *   Replaces the newest of four iterates by their quadratic
+     *   extrapolation, unless the differences between them are
+     *   degenerate.
+     */
+    private void extrapolate(double[][] x) {
+	int n = x[3].length;
+	// y1, y2 and y3 are the differences from x[0] to x[1], x[2] and x[3]
+	double y11 = 0, y12 = 0, y22 = 0, y13 = 0, y23 = 0;
+	for (int i = 0; i < n; ++i) {
+	    double y1 = x[1][i] - x[0][i];
+	    double y2 = x[2][i] - x[0][i];
+	    double y3 = x[3][i] - x[0][i];
+	    y11 += y1 * y1;
+	    y12 += y1 * y2;
+	    y22 += y2 * y2;
+	    y13 += y1 * y3;
+	    y23 += y2 * y3;
+	}
+	// Solve [y1 y2] (g1, g2) = -y3 by least squares
+	double determinant = y11 * y22 - y12 * y12;
+	if (determinant <= 0 || Double.isNaN(determinant))
 	    return;
+	double g1 = (-y13 * y22 + y23 * y12) / determinant;
+	double g2 = (-y23 * y11 + y13 * y12) / determinant;
+	double b0 = g1 + g2 + 1;
+	double b1 = g2 + 1;
+	double total = 0;
+	for (int i = 0; i < n; ++i) {
+	    x[3][i] = b0 * x[1][i] + b1 * x[2][i] + x[3][i];
+	    total += x[3][i];
+	}
+	for (int i = 0; i < n; ++i) {
+	    x[3][i] /= total;
 	}
+    }
 
-	if (out[page] == 0) {
-	    if (!dangling)
-		completeWalk(randomPage(n), n, pagerank, t+1, T, dangling);
-	    return;
+    /**
+     *   The power iteration, except that a document whose rank changes by
+     *   less than EPSILON of itself in an iteration, so little that all
+     *   such changes together stay below EPSILON, is taken to have
+     *   converged, and the rank it gets over its links is kept rather
+     *   than summed again; only the rank spread over all documents is
+     *   still added anew. Most documents converge long before the
+     *   slowest ones. Once the ranks change by less than EPSILON, every
+     *   document is summed again, so the iteration only stops after a
+     *   full step of the power iteration that changes them that little.
+     */
+    private double[] adaptivePower(int numberOfDocs, int[] iterations) {
+	int n = numberOfDocs;
+	double[] x = new double[n];
+	double[] xPrime = new double[n];
+	xPrime[0] = 1;
+	double[] share = new double[n];
+	boolean[] converged = new boolean[n];
+	// The rank each document gets over its links
+	double[] sums = new double[n];
+	// Whether some document kept its sum in the last iteration
+	boolean stale = false;
+
+	double delta = diffNorm(x, xPrime);
+	int k = 0;
+	for (; k < MAX_NUMBER_OF_ITERATIONS && (delta > EPSILON || stale); ++k) {
+	    double[] previous = x;
+	    x = xPrime;
+	    xPrime = previous;
+	    double sinkRank = 0;
+	    double totalRank = 0;
+	    for (int j = 0; j < n; ++j) {
+		totalRank += x[j];
+		if (out[j] == 0)
+		    sinkRank += x[j];
+		else
+		    share[j] = x[j] / out[j];
+	    }
+	    double jump = ((1 - BORED) * sinkRank + BORED * totalRank) / n;
+	    double square = 0;
+	    stale = false;
+	    for (int i = 0; i < n; ++i) {
+		if (!converged[i]) {
+		    double sum = 0;
+		    for (int l = inLinkStart[i]; l < inLinkStart[i + 1]; ++l) {
+			sum += share[inLinks[l]];
+		    }
+		    sums[i] = sum;
+		}
+		else {
+		    stale = true;
+		}
+		xPrime[i] = (1 - BORED) * sums[i] + jump;
+		double change = xPrime[i] - x[i];
+		square += change * change;
+		converged[i] = k > 0 && Math.abs(change) < EPSILON * xPrime[i];
+	    }
+	    delta = Math.sqrt(square);
+	    if (delta <= EPSILON) {
+		// The kept sums may be out of date; sum everything once more
+		Arrays.fill(converged, false);
+	    }
 	}
+	iterations[0] = k;
+	return normalize(xPrime);
+    }
 
-	completeWalk(randomPageFrom(page), n, pagerank, t+1, T, dangling);
+    /**
+     *   Scales the ranks to add up to 1.
+     */
+    private static double[] normalize(double[] x) {
+	double total = 0;
+	for (double rank : x) {
+	    total += rank;
+	}
+	for (int i = 0; i < x.length; ++i) {
+	    x[i] /= total;
+	}
+	return x;
     }
 
-    int randomPage(int n) {
-	return random.nextInt(n);
+    /**
+     *   Does one step of the power iteration from x into xPrime.
+     *   @code{share} is scratch space for the rank each document passes
+     *   along each of its outlinks.
+     *
+     *   @return the distance between x and xPrime, as by diffNorm.
+     */
+    private double iterate(final double[] x, final double[] xPrime, final double[] share) {
+	final int n = x.length;
+	int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+	final double[] sinkRanks = new double[blocks];
+	final double[] totalRanks = new double[blocks];
+	runBlocks(n, new Block() {
+		void run(int block, int from, int to) {
+		    double sinkRank = 0;
+		    double totalRank = 0;
+		    for (int j = from; j < to; ++j) {
+			totalRank += x[j];
+			if (out[j] == 0) {
+			    sinkRank += x[j];
+			    share[j] = 0;
+			} else {
+			    share[j] = x[j] / out[j];
+			}
+		    }
+		    sinkRanks[block] = sinkRank;
+		    totalRanks[block] = totalRank;
+		}
+	    });
+	double sinkRank = 0;
+	double totalRank = 0;
+	for (int b = 0; b < blocks; ++b) {
+	    sinkRank += sinkRanks[b];
+	    totalRank += totalRanks[b];
+	}
+
+	final double jump = ((1 - BORED) * sinkRank + BORED * totalRank) / n;
+	final double[] squares = new double[blocks];
+	runBlocks(n, new Block() {
+		void run(int block, int from, int to) {
+		    double square = 0;
+		    for (int i = from; i < to; ++i) {
+			double sum = 0;
+			for (int k = inLinkStart[i]; k < inLinkStart[i+1]; ++k) {
+			    sum += share[inLinks[k]];
+			}
+			xPrime[i] = (1 - BORED) * sum + jump;
+			square += Math.pow(x[i] - xPrime[i], 2);
+		    }
+		    squares[block] = square;
+		}
+	    });
+	double delta = 0;
+	for (int b = 0; b < blocks; ++b) {
+	    delta += squares[b];
+	}
+	return Math.sqrt(delta);
     }
 
-    int randomPageFrom(int from) {
-	int x = random.nextInt(out[from]);
-	Set<Integer> keys = link.get(from).keySet();
-	return keys.toArray(new Integer[keys.size()])[x];
+    /**
+     *   The work done on one block of documents, from @code{from} up to
+     *   but not including @code{to}.
+     */
+    private abstract static class Block {
+	abstract void run(int block, int from, int to);
     }
 
-    /*
-     *   Computes the pagerank of each document.  */
-    void computePagerank( int numberOfDocs ) {
-	try {
-	    double[] exactPagerank = readFromDisk(numberOfDocs);
-	    printTop(exactPagerank, 50);
-	    // int[] sizesOfN = new int[] {100, 1000, 10000, 100000, 1000000, 10000000, 100000000};
-	    int[] sizesOfN = new int[] {numberOfDocs * 1000};
-	    // int[] sizesOfM = new int[] {1, 2, 3, 4, 5, 100, 1000};
-	    int[] sizesOfM = new int[] {5};
-	    double lastD = 0;
-
-	    int upper = numberOfDocs;
-	    int step = 50;
-	    // System.out.println("#steps: " + ((numberOfDocs * upper) / step));
-	    // for (int i = step; i < upper; i += step) {
-		// double[] approx1 = endpointRandomStart(numberOfDocs, i);
-		// System.out.printf(Locale.US, "%d, %e, %e\n", i, getTopSquareDiffs(exactPagerank, approx1, numberOfDocs - 50, numberOfDocs), getTopSquareDiffs(exactPagerank, approx1, 50));
-	    // }
-	    // System.out.printf("X2 = [");
-	    int mStep = 1;
-	    int mUpper = 10;
-	    // for (int i = mStep; i < mUpper; i += mStep) {
-		// double[] approx1 = endpointCyclicStart(numberOfDocs, i);
-		// System.out.printf(Locale.US, "%d, %e, %e\n", i * numberOfDocs, getTopSquareDiffs(exactPagerank, approx1, numberOfDocs - 50, numberOfDocs), getTopSquareDiffs(exactPagerank, approx1, 50));
-	    // }
-	    int tStep = 10;
-	    int tUpper = 100;
-	    int t = 100;
-	    // for (int i = mStep; i < mUpper; i += mStep) {
-	    for (int i = step; i < upper; i += step) {
-		double[] approx1 = completePathRandomStart(numberOfDocs, i, t);
-		System.out.printf(Locale.US, "%d, %e, %e\n", i * t, getTopSquareDiffs(exactPagerank, approx1, numberOfDocs - 50, numberOfDocs), getTopSquareDiffs(exactPagerank, approx1, 50));
+    /**
+     *   Runs a Block on each block of the documents 0 to n-1, on the pool
+     *   if there is one.
+     */
+    private void runBlocks(int n, Block work) {
+	int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+	if (pool == null || blocks <= 1) {
+	    for (int b = 0; b < blocks; ++b) {
+		work.run(b, b * BLOCK_SIZE, Math.min(n, (b + 1) * BLOCK_SIZE));
 	    }
-	} catch (Exception e) {
-	    e.printStackTrace();
+	} else {
+	    pool.invoke(new BlockTask(n, 0, blocks, work));
 	}
     }
 
-    public double getPageRank(String filepath) {
-	String filename = filepath.substring(filepath.lastIndexOf("/") + 1, filepath.length() - 2);
-	System.out.println(filename);
-	String documentName = filenames.get(filename); 
-	if (documentName == null) {
-	    System.out.println("NULL NAME");
-	    return -1;
+    /**
+     *   Runs a Block on blocks @code{first} up to @code{last} by splitting
+     *   the range in halves.
+     */
+    private static class BlockTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+
+	final int n, first, last;
+	final Block work;
+
+	BlockTask(int n, int first, int last, Block work) {
+	    this.n = n;
+	    this.first = first;
+	    this.last = last;
+	    this.work = work;
 	}
 
-	int docN = docNumber.get(documentName);
-	return pageranks[docN];
+	protected void compute() {
+	    if (last - first == 1) {
+		work.run(first, first * BLOCK_SIZE, Math.min(n, (first + 1) * BLOCK_SIZE));
+	    } else {
+		int middle = (first + last) >>> 1;
+		invokeAll(new BlockTask(n, first, middle, work), new BlockTask(n, middle, last, work));
+	    }
+	}
     }
 
-    private void buildFilenames() throws FileNotFoundException, IOException {
-	String articleTitlesPath = "pagerank/articleTitles.txt";
-	BufferedReader reader = new BufferedReader(new FileReader(articleTitlesPath));
-	String line;
-	while ((line = reader.readLine()) != null) {
-	    String[] split = line.split(";");
-	    filenames.put(split[1], split[0]);
+    /**
+     *   Builds outLinkStart and outLinks from @code{link}, unless they
+     *   were read from a graph file.
+     */
+    private void buildOutLinks(int numberOfDocs) {
+	if (outLinkStart != null)
+	    return;
+	outLinkStart = new int[numberOfDocs + 1];
+	for (int i = 0; i < numberOfDocs; ++i) {
+	    outLinkStart[i + 1] = outLinkStart[i] + out[i];
+	}
+	outLinks = new int[outLinkStart[numberOfDocs]];
+	for (int i = 0; i < numberOfDocs; ++i) {
+	    Hashtable<Integer,Boolean> targets = link.get(i);
+	    if (targets == null)
+		continue;
+	    int k = outLinkStart[i];
+	    for (int j : targets.keySet()) {
+		outLinks[k++] = j;
+	    }
+	    Arrays.sort(outLinks, outLinkStart[i], k);
 	}
     }
 
+    /**
+     *   Builds inLinkStart and inLinks from outLinks.
+     */
+    private void buildInLinks(int numberOfDocs) {
+	buildOutLinks(numberOfDocs);
+	inLinkStart = new int[numberOfDocs + 1];
+	for (int k = 0; k < outLinkStart[numberOfDocs]; ++k) {
+	    inLinkStart[outLinks[k] + 1]++;
+	}
+	for (int i = 0; i < numberOfDocs; ++i) {
+	    inLinkStart[i + 1] += inLinkStart[i];
+	}
+	inLinks = new int[inLinkStart[numberOfDocs]];
+	int[] next = Arrays.copyOf(inLinkStart, numberOfDocs);
+	for (int i = 0; i < numberOfDocs; ++i) {
+	    for (int k = outLinkStart[i]; k < outLinkStart[i + 1]; ++k) {
+		inLinks[next[outLinks[k]]++] = i;
+	    }
+	}
+    }
 
-    private void exactPagerank(int numberOfDocs) {
-	double[] x = new double[numberOfDocs];
-	double[] xPrime = new double[numberOfDocs];
-	xPrime[0] = 1;
+    /**
+     *   Returns the pagerank in PAGERANK_FILENAME updated after a batch of
+     *   link changes, read from a file where each line is a + (links added) or
+     *   a - (links removed) followed by a line in the link file format.
+     *   New documents get the next numbers.
+     *
+     *   Rather than iterating over the whole graph again, the stored
+     *   pagerank x is corrected by pushing the residual b + Ax - x of the
+     *   new graph, where A is the transition matrix times 1-BORED and b
+     *   the BORED jumps, as in exactPagerank. The stored x is taken to
+     *   have no residual on the old graph, so the residual starts out
+     *   at the documents linked to from the changed ones, plus a part
+     *   that is the same for all documents when sinks or the number of
+     *   documents change, which only scales x. Pushing the residual r of
+     *   a document adds it to x and passes 1-BORED of it on over the
+     *   outlinks, so only the documents it reaches are touched; the rank
+     *   that sinks pass on is again the same for all documents, and also
+     *   ends up in the scaling. The push stops when no residual
+     *   is larger than EPSILON times BORED divided by the number of
+     *   documents, which bounds the error of the update by EPSILON.
+     *
+     *   @return the pagerank of the documents after the changes.
+     */
+    double[] updatePagerank(String batchFilename, int numberOfDocs) throws IOException {
+	buildOutLinks(numberOfDocs);
+	int[] oldOutLinkStart = outLinkStart;
+	int[] oldOutLinks = outLinks;
+
+	// The new outlinks of the documents that change
+	HashMap<Integer,TreeSet<Integer>> changed = new HashMap<Integer,TreeSet<Integer>>();
+	int n = numberOfDocs;
+	BufferedReader in = new BufferedReader(new FileReader(batchFilename));
+	String line;
+	while ((line = in.readLine()) != null) {
+	    if (line.length() == 0)
+		continue;
+	    boolean add = line.charAt(0) == '+';
+	    int index = line.indexOf(";");
+	    StringTokenizer tok = new StringTokenizer(line.substring(index + 1), ",");
+	    int from = documentNumber(line.substring(1, index), n);
+	    n = Math.max(n, from + 1);
+	    TreeSet<Integer> targets = changed.get(from);
+	    if (targets == null) {
+		targets = new TreeSet<Integer>();
+		if (from < numberOfDocs) {
+		    for (int k = oldOutLinkStart[from]; k < oldOutLinkStart[from + 1]; ++k) {
+			targets.add(oldOutLinks[k]);
+		    }
+		}
+		changed.put(from, targets);
+	    }
+	    while (tok.hasMoreTokens()) {
+		int to = documentNumber(tok.nextToken(), n);
+		n = Math.max(n, to + 1);
+		if (add) {
+		    targets.add(to);
+		} else {
+		    targets.remove(to);
+		}
+	    }
+	}
+	in.close();
 
-	double[][] g = createG(numberOfDocs);
+	// The new links
+	outLinkStart = new int[n + 1];
+	for (int i = 0; i < n; ++i) {
+	    TreeSet<Integer> targets = changed.get(i);
+	    int degree = targets != null ? targets.size() : i < numberOfDocs ? out[i] : 0;
+	    outLinkStart[i + 1] = outLinkStart[i] + degree;
+	}
+	outLinks = new int[outLinkStart[n]];
+	out = new int[n];
+	numberOfSinks = 0;
+	for (int i = 0; i < n; ++i) {
+	    TreeSet<Integer> targets = changed.get(i);
+	    int k = outLinkStart[i];
+	    if (targets != null) {
+		for (int j : targets) {
+		    outLinks[k++] = j;
+		}
+	    } else if (i < numberOfDocs) {
+		int degree = oldOutLinkStart[i + 1] - oldOutLinkStart[i];
+		System.arraycopy(oldOutLinks, oldOutLinkStart[i], outLinks, k, degree);
+	    }
+	    out[i] = outLinkStart[i + 1] - outLinkStart[i];
+	    if (out[i] == 0)
+		numberOfSinks++;
+	}
+	inLinkStart = null;
+	inLinks = null;
+	walks = null;
 
-	double delta = diffNorm(x, xPrime);
-	for (int k = 0; k < MAX_NUMBER_OF_ITERATIONS && delta > EPSILON; ++k) {
-	    System.out.println("dlet: " + delta);
-	    System.out.println("k: " + k);
-	    x = xPrime;
-	    xPrime = new double[numberOfDocs];
-	    for (int i = 0; i < numberOfDocs; ++i) {
-		for (int j = 0; j < numberOfDocs; ++j) {
-		    xPrime[i] += g[j][i] * x[j];
+	double[] x = Arrays.copyOf(readFromDisk(numberOfDocs), n);
+	double[] r = new double[n];
+	double oldSinkRank = 0;
+	for (int i = 0; i < numberOfDocs; ++i) {
+	    if (oldOutLinkStart[i] == oldOutLinkStart[i + 1])
+		oldSinkRank += x[i];
+	}
+	// The residual that every document gets is left out of r, and
+	// new documents start with the residual the others had before
+	for (int i = numberOfDocs; i < n; ++i) {
+	    r[i] = (BORED + (1 - BORED) * oldSinkRank) / numberOfDocs;
+	}
+	for (int u : changed.keySet()) {
+	    if (u >= numberOfDocs || x[u] == 0)
+		continue;
+	    int oldDegree = oldOutLinkStart[u + 1] - oldOutLinkStart[u];
+	    for (int k = oldOutLinkStart[u]; k < oldOutLinkStart[u + 1]; ++k) {
+		r[oldOutLinks[k]] -= (1 - BORED) * x[u] / oldDegree;
+	    }
+	    for (int k = outLinkStart[u]; k < outLinkStart[u + 1]; ++k) {
+		r[outLinks[k]] += (1 - BORED) * x[u] / out[u];
+	    }
+	}
+
+	double tolerance = EPSILON * BORED / n;
+	int[] queue = new int[n];
+	boolean[] queued = new boolean[n];
+	boolean[] touched = new boolean[n];
+	int head = 0;
+	int size = 0;
+	for (int i = 0; i < n; ++i) {
+	    if (Math.abs(r[i]) > tolerance) {
+		queue[size++] = i;
+		queued[i] = true;
+	    }
+	}
+	long pushes = 0;
+	while (size > 0) {
+	    int u = queue[head];
+	    head = (head + 1) % n;
+	    size--;
+	    queued[u] = false;
+	    double push = r[u];
+	    r[u] = 0;
+	    x[u] += push;
+	    touched[u] = true;
+	    pushes++;
+	    if (out[u] == 0) {
+		continue;
+	    }
+	    for (int k = outLinkStart[u]; k < outLinkStart[u + 1]; ++k) {
+		int v = outLinks[k];
+		r[v] += (1 - BORED) * push / out[u];
+		if (!queued[v] && Math.abs(r[v]) > tolerance) {
+		    queue[(head + size++) % n] = v;
+		    queued[v] = true;
 		}
 	    }
-	    delta = diffNorm(x, xPrime);
 	}
 
-	try {
-	    writeToDisk(xPrime, numberOfDocs);
-	} catch (Exception e) {
-	    e.printStackTrace();
+	// Pushing the uniform residual would add the same multiple of the
+	// pagerank to itself, as the pagerank is the result of pushing the
+	// uniform residual BORED / n; so it just scales the pagerank, which
+	// must add up to 1.
+	double total = 0;
+	for (int i = 0; i < n; ++i) {
+	    total += x[i];
+	}
+	for (int i = 0; i < n; ++i) {
+	    x[i] /= total;
 	}
+
+	int numberTouched = 0;
+	for (boolean t : touched) {
+	    if (t)
+		numberTouched++;
+	}
+	System.err.println("Updated " + changed.size() + " documents' links: " + pushes
+			   + " pushes changed the pagerank of " + numberTouched + " of " + n
+			   + " documents, and the rest was scaled by " + (1 / total));
+	return x;
     }
 
-    private double[][] createG(int numberOfDocs) {
-	double[][] g = new double[numberOfDocs][numberOfDocs];
-	for (int i = 0; i < numberOfDocs; ++i) {
-	    if (i % 1000 == 0)
-		System.out.println("i: " + i);
-	    for (int j = 0; j < numberOfDocs; ++j) {
-		if (out[i] == 0) {
-		    g[i][j] = 1 / (double) numberOfDocs;
-		} else {
-		    g[i][j] = getP(i, j) / (double) out[i];
-		}
-		g[i][j] *= (1 - BORED);
-		g[i][j] += BORED / numberOfDocs;
+    /**
+     *   Returns the number of a document, giving it number @code{n} if it
+     *   is new.
+     */
+    private int documentNumber(String title, int n) {
+	Integer number = docNumber.get(title);
+	if (number == null) {
+	    number = n;
+	    docNumber.put(title, n);
+	    if (n == docName.length) {
+		docName = Arrays.copyOf(docName, 2 * n + 1);
 	    }
+	    docName[n] = title;
 	}
-	return g;
+	return number;
     }
 
     private double diffNorm(double[] x, double[] xPrime) {
@@ -428,27 +1147,22 @@ public class PageRank{
 	return Math.sqrt(delta);
     }
 
-    private int getP(int i, int j) {
-	// i has no outlinks.
-	if (link.get(i) == null)
-	    return 0;
-
-	// i has no link to j.
-	if (!link.get(i).keySet().contains(j))
-	    return 0;
-
-	return 1;
+    private void writeToDisk(double[] pagerank, int n) throws IOException {
+	writeToDisk(pagerank, n, PAGERANK_FILENAME);
     }
 
-    private void writeToDisk(double[] pagerank, int n) throws FileNotFoundException {
-	PrintWriter writer = new PrintWriter(PAGERANK_FILENAME);
+    private void writeToDisk(double[] pagerank, int n, String filename) throws IOException {
+	PrintWriter writer = new PrintWriter(filename);
 	for (int i = 0; i < n; ++i) {
 	    writer.println(pagerank[i]);
 	}
 	writer.close();
+	if (writer.checkError()) {
+	    throw new IOException("Could not write " + filename);
+	}
     }
 
-    private double[] readFromDisk(int n) throws FileNotFoundException, IOException {
+    double[] readFromDisk(int n) throws FileNotFoundException, IOException {
 	double[] pagerank = new double[n];
 	BufferedReader in = new BufferedReader(new FileReader(PAGERANK_FILENAME));
 	for (int i = 0; i < n; ++i) {
@@ -477,11 +1191,11 @@ public class PageRank{
         }
     }
 
-    private double getTopSquareDiffs(double[] exact, double[] approx, int top) {
+    double getTopSquareDiffs(double[] exact, double[] approx, int top) {
 	return getTopSquareDiffs(exact, approx, 0, top);
     }
 
-    private double getTopSquareDiffs(double[] exact, double[] approx, int bot, int top) {
+    double getTopSquareDiffs(double[] exact, double[] approx, int bot, int top) {
         List<ValueAndIndex> list = new LinkedList<ValueAndIndex>();
         for (int i = 0; i < exact.length; i++) {
             ValueAndIndex d = new ValueAndIndex(exact[i], docName[i]);
@@ -526,11 +1240,27 @@ public class PageRank{
     /* --------------------------------------------- */
 
     public static void main( String[] args ) {
-	if ( args.length != 1 ) {
-	    System.err.println( "Please give the name of the link file" );
+	if ( args.length == 3 && args[1].equals( "-u" )) {
+	    new PageRank( args[0], args[2] );
+	    return;
+	}
+	int threads = 1;
+	int solver = POWER;
+	for ( int i=1; i<args.length; i++ ) {
+	    if ( args[i].equals( "-s" ) && i+1 < args.length ) {
+		solver = Arrays.asList( SOLVER_NAMES ).indexOf( args[++i] );
+	    }
+	    else {
+		threads = Integer.parseInt( args[i] );
+	    }
+	}
+	if ( args.length < 1 || solver < 0 ) {
+	    System.err.println( "Please give the name of the link file, and optionally the number of threads" );
+	    System.err.println( "and -s and a solver: " + Arrays.toString( SOLVER_NAMES ));
+	    System.err.println( "or the name of a graph file, -u and the name of a file of link changes" );
 	}
 	else {
-	    new PageRank( args[0] );
+	    new PageRank( args[0], threads, solver );
 	}
     }
 }
@@ -0,0 +1,264 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+package pagerank;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ *   Measures the cost and the accuracy of the five Monte Carlo methods
+ *   and the exact solvers, to pick the cheapest one that is accurate
+ *   enough.
+ *
+ *   Each method is run for every combination of the parameters it takes
+ *   from the grids of N (walks), m (walks per document) and T (longest
+ *   walk): first once to warm up, then a number of times to measure. For
+ *   each combination one line of comma-separated values is written: the
+ *   median wall time, the steps taken (links followed or random jumps;
+ *   for the exact solvers, links summed over), the steps per second, the
+ *   megabytes allocated per second, and the summed squared error of the
+ *   top 50 and the bottom 50 documents against PAGERANK_FILENAME, as
+ *   PageRank.getTopSquareDiffs computes it.
+ *
+ *   The allocation is that of all threads alive after the run, as far as
+ *   the JVM can tell (com.sun.management.ThreadMXBean); it is -1 where
+ *   it cannot.
+ */
+public class PageRankBenchmark {
+
+    final static String HEADER = "method,N,m,T,threads,ms,steps,steps_per_s,alloc_mb_per_s,top50_err,bottom50_err";
+
+    private final PageRank pagerank;
+    private final int n;
+    private final int threads;
+    private final double[] exact;
+    private final int runs;
+    private final PrintStream out;
+
+    /**
+     *   The steps of the last run().
+     */
+    private long lastSteps;
+
+
+    public PageRankBenchmark( String filename, int threads, int runs, PrintStream out ) throws IOException {
+	this.threads = threads;
+	this.runs = runs;
+	this.out = out;
+	pagerank = new PageRank( threads );
+	n = pagerank.readDocs( filename );
+	exact = pagerank.readFromDisk( n );
+    }
+
+
+    /**
+     *   Runs every method for the grids, writing a line for each.
+     */
+    public void run( long[] sizesOfN, int[] sizesOfM, int[] sizesOfT, boolean exactSolvers ) {
+	out.println( HEADER );
+	for ( long N : sizesOfN ) {
+	    measure( 1, N, 0, 0 );
+	}
+	for ( int m : sizesOfM ) {
+	    measure( 2, 0, m, 0 );
+	}
+	for ( int m : sizesOfM ) {
+	    for ( int T : sizesOfT ) {
+		measure( 3, 0, m, T );
+		measure( 4, 0, m, T );
+	    }
+	}
+	for ( long N : sizesOfN ) {
+	    for ( int T : sizesOfT ) {
+		measure( 5, N, 0, T );
+	    }
+	}
+	if ( exactSolvers ) {
+	    for ( int solver=0; solver<PageRank.SOLVER_NAMES.length; solver++ ) {
+		measure( -solver-1, 0, 0, 0 );
+	    }
+	}
+    }
+
+
+    /**
+     *   Measures one method with one set of parameters, a Monte Carlo
+     *   method by its number or an exact solver by minus one more than
+     *   its number.
+     */
+    private void measure( int method, long N, int m, int T ) {
+	String name = method > 0 ? "method" + method : "exact-" + PageRank.SOLVER_NAMES[-method-1];
+	if ( N > Integer.MAX_VALUE ) {
+	    System.err.println( "Skipping " + name + " with N=" + N + ", which is too many walks" );
+	    return;
+	}
+	run( method, (int) N, m, T );
+	long[] times = new long[runs];
+	long steps = 0;
+	long allocated = 0;
+	double[] approx = null;
+	for ( int r=0; r<runs; r++ ) {
+	    long bytes = allocatedBytes();
+	    long start = System.nanoTime();
+	    approx = run( method, (int) N, m, T );
+	    times[r] = System.nanoTime() - start;
+	    long after = allocatedBytes();
+	    allocated = bytes < 0 || after < 0 || allocated < 0 ? -1 : allocated + after - bytes;
+	    steps = lastSteps;
+	}
+	Arrays.sort( times );
+	long median = times[runs / 2];
+	long total = 0;
+	for ( long time : times ) {
+	    total += time;
+	}
+	double seconds = median / 1e9;
+	out.printf( Locale.US, "%s,%d,%d,%d,%d,%.3f,%d,%.4e,%.1f,%.4e,%.4e%n",
+		    name, N, m, T, threads, median / 1e6, steps, steps / seconds,
+		    allocated < 0 ? -1 : allocated / 1e6 / (total / 1e9),
+		    pagerank.getTopSquareDiffs( exact, approx, 50 ),
+		    pagerank.getTopSquareDiffs( exact, approx, n - 50, n ));
+	out.flush();
+    }
+
+
+    private double[] run( int method, int N, int m, int T ) {
+	double[] result;
+	switch ( method ) {
+	case 1:
+	    result = pagerank.endpointRandomStart( n, N );
+	    break;
+	case 2:
+	    result = pagerank.endpointCyclicStart( n, m );
+	    break;
+	case 3:
+	    result = pagerank.completePath( n, m, T );
+	    break;
+	case 4:
+	    result = pagerank.completePathDangling( n, m, T );
+	    break;
+	case 5:
+	    result = pagerank.completePathRandomStart( n, N, T );
+	    break;
+	default:
+	    pagerank.solver = -method-1;
+	    int[] iterations = new int[1];
+	    result = pagerank.solve( n, iterations );
+	    lastSteps = (long) iterations[0] * pagerank.inLinks.length;
+	    return result;
+	}
+	lastSteps = pagerank.walks.steps();
+	return result;
+    }
+
+
+    /**
+     *   The bytes allocated so far by the threads alive, or -1 if the JVM
+     *   cannot tell.
+     */
+    private static long allocatedBytes() {
+	ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+	if ( !(bean instanceof com.sun.management.ThreadMXBean) ) {
+	    return -1;
+	}
+	com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+	if ( !sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled() ) {
+	    return -1;
+	}
+	long total = 0;
+	for ( long bytes : sunBean.getThreadAllocatedBytes( bean.getAllThreadIds() )) {
+	    if ( bytes > 0 ) {
+		total += bytes;
+	    }
+	}
+	return total;
+    }
+
+
+    private static long[] parseLongs( String list ) {
+	String[] values = list.split( "," );
+	long[] result = new long[values.length];
+	for ( int i=0; i<values.length; i++ ) {
+	    result[i] = Long.parseLong( values[i].trim() );
+	}
+	return result;
+    }
+
+
+    private static int[] parseInts( String list ) {
+	long[] values = parseLongs( list );
+	int[] result = new int[values.length];
+	for ( int i=0; i<values.length; i++ ) {
+	    result[i] = (int) values[i];
+	}
+	return result;
+    }
+
+
+    public static void main( String[] args ) {
+	if ( args.length < 1 ) {
+	    System.err.println( "Please give the name of the link file, and optionally" );
+	    System.err.println( "-N, -m and -T and comma-separated values for the grids," );
+	    System.err.println( "-t and the number of threads, -r and the number of runs," );
+	    System.err.println( "-x to measure the exact solvers and -o and a file for the results" );
+	    return;
+	}
+	long[] sizesOfN = null;
+	int[] sizesOfM = { 1, 5, 10 };
+	int[] sizesOfT = { 10, 100 };
+	int threads = 1;
+	int runs = 3;
+	boolean exactSolvers = false;
+	String outFilename = null;
+	for ( int i=1; i<args.length; i++ ) {
+	    if ( "-N".equals( args[i] ) && i+1 < args.length ) {
+		sizesOfN = parseLongs( args[++i] );
+	    }
+	    else if ( "-m".equals( args[i] ) && i+1 < args.length ) {
+		sizesOfM = parseInts( args[++i] );
+	    }
+	    else if ( "-T".equals( args[i] ) && i+1 < args.length ) {
+		sizesOfT = parseInts( args[++i] );
+	    }
+	    else if ( "-t".equals( args[i] ) && i+1 < args.length ) {
+		threads = Integer.parseInt( args[++i] );
+	    }
+	    else if ( "-r".equals( args[i] ) && i+1 < args.length ) {
+		runs = Math.max( 1, Integer.parseInt( args[++i] ));
+	    }
+	    else if ( "-x".equals( args[i] )) {
+		exactSolvers = true;
+	    }
+	    else if ( "-o".equals( args[i] ) && i+1 < args.length ) {
+		outFilename = args[++i];
+	    }
+	    else {
+		System.err.println( "Unknown argument " + args[i] );
+		return;
+	    }
+	}
+	// The results go to the real standard output or the file; what the
+	// methods print goes to standard error
+	PrintStream out = System.out;
+	System.setOut( System.err );
+	try {
+	    if ( outFilename != null ) {
+		out = new PrintStream( new FileOutputStream( outFilename ));
+	    }
+	    PageRankBenchmark benchmark = new PageRankBenchmark( args[0], threads, runs, out );
+	    if ( sizesOfN == null ) {
+		sizesOfN = new long[] { benchmark.n, 10L * benchmark.n };
+	    }
+	    benchmark.run( sizesOfN, sizesOfM, sizesOfT, exactSolvers );
+	    out.close();
+	}
+	catch ( IOException e ) {
+	    e.printStackTrace();
+	}
+    }
+}
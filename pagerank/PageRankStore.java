@@ -0,0 +1,208 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+package pagerank;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ *   The pagerank of each article in a compact binary file, so that the
+ *   search engine can look it up without parsing the link file, the
+ *   pagerank file and the article titles.
+ *
+ *   The articles are keyed by the name of their file, without the
+ *   directory and the ".f", and sorted by the UTF-8 bytes of that name,
+ *   so a lookup is a binary search in the mapped file. The file holds,
+ *   as big-endian ints, MAGIC, the number of articles, the offsets of
+ *   the names, the number of each article in the link graph and the
+ *   pagerank of each as a float; then the names.
+ */
+public class PageRankStore {
+
+    final static int MAGIC = 0x50525331;
+
+    public final static String STORE_FILENAME = "pagerank/pagerank.bin";
+
+    private final ByteBuffer buffer;
+    private final int size;
+
+    /**
+     *   Where the name offsets, the document numbers, the scores and the
+     *   names start in the buffer.
+     */
+    private final int nameStartPosition, docNumberPosition, scorePosition, namePosition;
+
+
+    private PageRankStore( ByteBuffer buffer ) throws IOException {
+	this.buffer = buffer;
+	if ( buffer.getInt( 0 ) != MAGIC ) {
+	    throw new IOException( "Not a pagerank store" );
+	}
+	size = buffer.getInt( 4 );
+	nameStartPosition = 8;
+	docNumberPosition = nameStartPosition + 4 * (size+1);
+	scorePosition = docNumberPosition + 4 * size;
+	namePosition = scorePosition + 4 * size;
+    }
+
+
+    /**
+     *   Opens STORE_FILENAME, first writing it from the text files with
+     *   PageRank if it is missing or older than PageRank.PAGERANK_FILENAME.
+     */
+    public static PageRankStore open() throws IOException {
+	File store = new File( STORE_FILENAME );
+	File scores = new File( PageRank.PAGERANK_FILENAME );
+	if ( !store.exists() || store.lastModified() < scores.lastModified() ) {
+	    new PageRank().writeStore( STORE_FILENAME );
+	}
+	return load( STORE_FILENAME );
+    }
+
+
+    /**
+     *   Maps a store file into memory.
+     */
+    public static PageRankStore load( String filename ) throws IOException {
+	RandomAccessFile file = new RandomAccessFile( filename, "r" );
+	try {
+	    FileChannel channel = file.getChannel();
+	    return new PageRankStore( channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() ));
+	}
+	finally {
+	    file.close();
+	}
+    }
+
+
+    /**
+     *   Writes a store of the articles with these file names, document
+     *   numbers and scores.
+     */
+    public static void write( String[] names, int[] docNumbers, float[] scores, String filename ) throws IOException {
+	final byte[][] nameBytes = new byte[names.length][];
+	Integer[] order = new Integer[names.length];
+	for ( int i=0; i<names.length; i++ ) {
+	    nameBytes[i] = names[i].getBytes( StandardCharsets.UTF_8 );
+	    order[i] = i;
+	}
+	Arrays.sort( order, new Comparator<Integer>() {
+		public int compare( Integer a, Integer b ) {
+		    return compareBytes( nameBytes[a], nameBytes[b] );
+		}
+	    });
+	DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( filename )));
+	try {
+	    out.writeInt( MAGIC );
+	    out.writeInt( names.length );
+	    int start = 0;
+	    out.writeInt( start );
+	    for ( int i : order ) {
+		start += nameBytes[i].length;
+		out.writeInt( start );
+	    }
+	    for ( int i : order ) {
+		out.writeInt( docNumbers[i] );
+	    }
+	    for ( int i : order ) {
+		out.writeFloat( scores[i] );
+	    }
+	    for ( int i : order ) {
+		out.write( nameBytes[i] );
+	    }
+	}
+	finally {
+	    out.close();
+	}
+    }
+
+
+    /**
+     *   Returns the position of the article with the file at this path,
+     *   or -1 if it is not in the store.
+     */
+    private int find( String filepath ) {
+	byte[] key = PageRank.fileKey( filepath ).getBytes( StandardCharsets.UTF_8 );
+	int lo = 0, hi = size - 1;
+	while ( lo <= hi ) {
+	    int mid = (lo + hi) >>> 1;
+	    int start = buffer.getInt( nameStartPosition + 4 * mid );
+	    int end = buffer.getInt( nameStartPosition + 4 * (mid+1) );
+	    int c = compareName( namePosition + start, end - start, key );
+	    if ( c < 0 ) {
+		lo = mid + 1;
+	    }
+	    else if ( c > 0 ) {
+		hi = mid - 1;
+	    }
+	    else {
+		return mid;
+	    }
+	}
+	return -1;
+    }
+
+
+    /**
+     *   Returns the pagerank of the article with the file at this path,
+     *   or -1 if it has none.
+     */
+    public float getPageRank( String filepath ) {
+	int i = find( filepath );
+	return i < 0 ? -1 : buffer.getFloat( scorePosition + 4 * i );
+    }
+
+
+    /**
+     *   Returns the number in the link graph of the article with the file
+     *   at this path, or -1 if it is not in it.
+     */
+    public int getDocNumber( String filepath ) {
+	int i = find( filepath );
+	return i < 0 ? -1 : buffer.getInt( docNumberPosition + 4 * i );
+    }
+
+
+    /**
+     *   Compares the name of @code{length} bytes at @code{position} in the
+     *   buffer with a key, byte by byte as unsigned numbers.
+     */
+    private int compareName( int position, int length, byte[] key ) {
+	int n = Math.min( length, key.length );
+	for ( int i=0; i<n; i++ ) {
+	    int c = (buffer.get( position + i ) & 0xff) - (key[i] & 0xff);
+	    if ( c != 0 ) {
+		return c;
+	    }
+	}
+	return length - key.length;
+    }
+
+
+    private static int compareBytes( byte[] a, byte[] b ) {
+	int n = Math.min( a.length, b.length );
+	for ( int i=0; i<n; i++ ) {
+	    int c = (a[i] & 0xff) - (b[i] & 0xff);
+	    if ( c != 0 ) {
+		return c;
+	    }
+	}
+	return a.length - b.length;
+    }
+
+
+    public static void main( String[] args ) {
+	try {
+	    new PageRank().writeStore( STORE_FILENAME );
+	}
+	catch ( IOException e ) {
+	    e.printStackTrace();
+	}
+    }
+}
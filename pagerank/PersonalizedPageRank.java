@@ -0,0 +1,178 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+package pagerank;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+
+/**
+ *   Approximates the personalized pagerank of a set of seed documents:
+ *   the pagerank when the bored surfer, and the surfer stuck in a sink,
+ *   jumps to one of the seeds rather than to any document.
+ *
+ *   It uses forward push. Each document has an estimate p and a residual
+ *   r, all of it at first spread evenly over the seeds. Pushing a
+ *   document moves BORED of its residual into its estimate and passes
+ *   the rest on evenly over its outlinks, so the work stays near the
+ *   seeds. Documents are pushed until no residual is larger than
+ *   TOLERANCE times the number of outlinks, or until the time is up;
+ *   the estimates are then too low by at most the residual left.
+ *
+ *   The arrays are kept between calls and only the documents touched
+ *   are cleared, so a call costs no more than the pushes it does. The
+ *   links are read where they are, which may be a mapped graph file.
+ */
+public class PersonalizedPageRank {
+
+    /**
+     *   The residual per outlink below which documents are not pushed.
+     */
+    final static double TOLERANCE = 1e-6;
+
+    /**
+     *   How many pushes are done between looks at the clock.
+     */
+    final static int PUSHES_PER_CHECK = 64;
+
+    /**
+     *   The documents that document i links to are outLinks.get(k) for
+     *   outLinkStart.get(i) <= k < outLinkStart.get(i+1).
+     */
+    private final IntBuffer outLinkStart;
+    private final IntBuffer outLinks;
+
+    private final double[] p;
+    private final double[] r;
+
+    /**
+     *   The documents whose estimate or residual is not 0, touched[0] to
+     *   touched[numberTouched-1].
+     */
+    private final int[] touched;
+    private int numberTouched = 0;
+    private final boolean[] isTouched;
+
+    /**
+     *   The documents waiting to be pushed, in a ring.
+     */
+    private final int[] queue;
+    private final boolean[] queued;
+
+
+    public PersonalizedPageRank( IntBuffer outLinkStart, IntBuffer outLinks ) {
+	int n = outLinkStart.limit() - 1;
+	this.outLinkStart = outLinkStart;
+	this.outLinks = outLinks;
+	p = new double[n];
+	r = new double[n];
+	touched = new int[n];
+	isTouched = new boolean[n];
+	queue = new int[n];
+	queued = new boolean[n];
+    }
+
+
+    /**
+     *   Loads the link graph in PageRank.GRAPH_FILENAME, converting
+     *   PageRank.LINKS_FILENAME to it first if it does not exist or is
+     *   out of date. The documents are numbered as in PageRankStore.
+     */
+    public static PersonalizedPageRank load() throws IOException {
+	LinkGraph.convertIfStale( PageRank.LINKS_FILENAME, PageRank.GRAPH_FILENAME );
+	LinkGraph graph = LinkGraph.load( PageRank.GRAPH_FILENAME );
+	return new PersonalizedPageRank( graph.outLinkStart, graph.outLinks );
+    }
+
+
+    /**
+     *   Computes the personalized pagerank of the seeds, stopping at
+     *   @code{deadline} (as given by System.nanoTime) at the latest.
+     *   The estimates are in ranks(), for the documents in touched(),
+     *   until the next call.
+     *
+     *   @return the number of documents touched.
+     */
+    public synchronized int compute( int[] seeds, long deadline ) {
+	for ( int i=0; i<numberTouched; i++ ) {
+	    int d = touched[i];
+	    p[d] = 0;
+	    r[d] = 0;
+	    isTouched[d] = false;
+	    queued[d] = false;
+	}
+	numberTouched = 0;
+	if ( seeds.length == 0 ) {
+	    return 0;
+	}
+	int n = p.length;
+	int head = 0, size = 0;
+	for ( int s : seeds ) {
+	    touch( s );
+	    r[s] += 1.0 / seeds.length;
+	    if ( !queued[s] ) {
+		queue[(head + size++) % n] = s;
+		queued[s] = true;
+	    }
+	}
+
+	long pushes = 0;
+	while ( size > 0 ) {
+	    if ( ++pushes % PUSHES_PER_CHECK == 0 && System.nanoTime() > deadline ) {
+		break;
+	    }
+	    int u = queue[head];
+	    head = (head + 1) % n;
+	    size--;
+	    queued[u] = false;
+	    double push = r[u];
+	    r[u] = 0;
+	    p[u] += PageRank.BORED * push;
+	    int start = outLinkStart.get( u );
+	    int degree = outLinkStart.get( u+1 ) - start;
+	    // From a sink, the surfer jumps to a seed
+	    boolean sink = degree == 0;
+	    if ( sink ) {
+		degree = seeds.length;
+	    }
+	    double share = (1 - PageRank.BORED) * push / degree;
+	    for ( int k=0; k<degree; k++ ) {
+		int v = sink ? seeds[k] : outLinks.get( start+k );
+		touch( v );
+		r[v] += share;
+		int outDegree = outLinkStart.get( v+1 ) - outLinkStart.get( v );
+		if ( !queued[v] && r[v] > TOLERANCE * Math.max( outDegree, 1 )) {
+		    queue[(head + size++) % n] = v;
+		    queued[v] = true;
+		}
+	    }
+	}
+	return numberTouched;
+    }
+
+
+    private void touch( int d ) {
+	if ( !isTouched[d] ) {
+	    isTouched[d] = true;
+	    touched[numberTouched++] = d;
+	}
+    }
+
+
+    /**
+     *   The estimates of the last computation, by document number.
+     */
+    public double[] ranks() {
+	return p;
+    }
+
+
+    /**
+     *   The documents with an estimate from the last computation, the
+     *   first compute() of them.
+     */
+    public int[] touched() {
+	return touched;
+    }
+}
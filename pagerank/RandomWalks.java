@@ -0,0 +1,182 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+package pagerank;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ *   Simulates random surfers on a link graph, for the Monte Carlo
+ *   approximations of the pagerank.
+ *
+ *   The outlinks are kept in compressed sparse row form, so a step of
+ *   a walk is a couple of array lookups and no walk allocates anything.
+ *   The walks are cut into chunks of CHUNK_SIZE walks, each with its own
+ *   random number generator split off from one seed. The chunks are
+ *   dealt out over stripes that run in parallel and count the visits
+ *   in an array of their own, so the counts depend only on the seed and
+ *   not on the number of threads.
+ */
+public class RandomWalks {
+
+    /**
+     *   The number of walks in a chunk.
+     */
+    final static int CHUNK_SIZE = 1 << 14;
+
+    /**
+     *   The number of documents.
+     */
+    private final int n;
+
+    /**
+     *   The documents that document i links to are outLinks[k] for
+     *   outLinkStart[i] <= k < outLinkStart[i+1].
+     */
+    private final int[] outLinkStart;
+    private final int[] outLinks;
+
+    /**
+     *   The pool that runs the stripes, or null to run all walks on
+     *   the calling thread.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     *   The number of steps taken in the last visits(), by stripe.
+     */
+    private long[] steps = new long[0];
+
+
+    public RandomWalks( int[] outLinkStart, int[] outLinks, ForkJoinPool pool ) {
+	this.n = outLinkStart.length - 1;
+	this.outLinkStart = outLinkStart;
+	this.outLinks = outLinks;
+	this.pool = pool;
+    }
+
+
+    /**
+     *   Simulates @code{walks} random walks and counts the visits to
+     *   each document.
+     *
+     *   @param cycle If positive, walk w starts in document w / cycle;
+     *   otherwise each walk starts in a random document.
+     *   @param length If 0, each walk goes on until the surfer gets bored,
+     *   jumping to a random document from documents without outlinks, and
+     *   only the document it ends in is counted. Otherwise every document
+     *   visited is counted, for at most @code{length} documents.
+     *   @param stopAtSinks Whether a counted walk ends in a document
+     *   without outlinks, rather than jumping to a random document.
+     *   @return the number of visits to each document.
+     */
+    public long[] visits( final long walks, final int cycle, final int length,
+			  final boolean stopAtSinks, long seed ) {
+	final int chunks = (int) ((walks + CHUNK_SIZE - 1) / CHUNK_SIZE);
+	final long[] seeds = new long[chunks];
+	SplittableRandom root = new SplittableRandom( seed );
+	for ( int c=0; c<chunks; c++ ) {
+	    seeds[c] = root.nextLong();
+	}
+	final int stripes = pool == null ? 1 : Math.min( pool.getParallelism(), Math.max( chunks, 1 ));
+	final long[][] counts = new long[stripes][];
+	steps = new long[stripes];
+	if ( stripes == 1 ) {
+	    counts[0] = walkStripe( 0, 1, chunks, seeds, walks, cycle, length, stopAtSinks );
+	}
+	else {
+	    ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[stripes];
+	    for ( int s=0; s<stripes; s++ ) {
+		final int stripe = s;
+		tasks[s] = pool.submit( new RecursiveAction() {
+			protected void compute() {
+			    counts[stripe] = walkStripe( stripe, stripes, chunks, seeds, walks, cycle, length, stopAtSinks );
+			}
+		    });
+	    }
+	    for ( ForkJoinTask<?> task : tasks ) {
+		task.join();
+	    }
+	}
+	long[] total = counts[0];
+	for ( int s=1; s<stripes; s++ ) {
+	    for ( int i=0; i<n; i++ ) {
+		total[i] += counts[s][i];
+	    }
+	}
+	return total;
+    }
+
+
+    /**
+     *   The number of steps, links followed or random jumps, that the walks
+     *   of the last visits() took.
+     */
+    public long steps() {
+	long total = 0;
+	for ( long s : steps ) {
+	    total += s;
+	}
+	return total;
+    }
+
+
+    /**
+     *   Runs the walks of every @code{stripes}th chunk from chunk
+     *   @code{stripe} on.
+     */
+    private long[] walkStripe( int stripe, int stripes, int chunks, long[] seeds,
+			       long walks, int cycle, int length, boolean stopAtSinks ) {
+	long[] counts = new long[n];
+	for ( int c=stripe; c<chunks; c+=stripes ) {
+	    SplittableRandom random = new SplittableRandom( seeds[c] );
+	    long first = (long) c * CHUNK_SIZE;
+	    long last = Math.min( walks, first + CHUNK_SIZE );
+	    for ( long w=first; w<last; w++ ) {
+		int page = cycle > 0 ? (int) (w / cycle) : random.nextInt( n );
+		if ( length == 0 ) {
+		    while ( random.nextDouble() > PageRank.BORED ) {
+			page = step( page, random );
+			steps[stripe]++;
+		    }
+		    counts[page]++;
+		}
+		else {
+		    counts[page]++;
+		    for ( int t=1; t<length; t++ ) {
+			if ( random.nextDouble() <= PageRank.BORED ) {
+			    page = random.nextInt( n );
+			}
+			else if ( stopAtSinks && outLinkStart[page] == outLinkStart[page+1] ) {
+			    break;
+			}
+			else {
+			    page = step( page, random );
+			}
+			steps[stripe]++;
+			counts[page]++;
+		    }
+		}
+	    }
+	}
+	return counts;
+    }
+
+
+    /**
+     *   Follows a random outlink from a document, or jumps to a random
+     *   document if it has none.
+     */
+    private int step( int page, SplittableRandom random ) {
+	int start = outLinkStart[page];
+	int outDegree = outLinkStart[page+1] - start;
+	if ( outDegree == 0 ) {
+	    return random.nextInt( n );
+	}
+	return outLinks[start + random.nextInt( outDegree )];
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+package pagerank;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ *   Computes the pagerank of a graph file (see LinkGraph) that is too
+ *   big for the links to be kept in memory.
+ *
+ *   The power iteration is the one of PageRank.exactPagerank, but each
+ *   iteration reads the outlink offsets and the outlinks from the file
+ *   from start to end, pushing the rank of each document to the ones it
+ *   links to. Only the two rank vectors are kept in memory, 16 bytes per
+ *   document; the names of the documents are never read. The graph
+ *   file is made by LinkGraph.convert, which sorts the links on disk
+ *   when there are too many to sort in memory.
+ */
+public class StreamingPageRank {
+
+    /**
+     *   The number of bytes read from the file at a time.
+     */
+    final static int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+
+    /**
+     *   The number of documents.
+     */
+    private final int n;
+
+    /**
+     *   Where the outlink offsets and the outlinks start in the file.
+     */
+    private final long outLinkStartPosition, outLinksPosition;
+
+
+    public StreamingPageRank( FileChannel channel ) throws IOException {
+	this.channel = channel;
+	ByteBuffer header = ByteBuffer.allocate( 12 );
+	channel.read( header, 0 );
+	header.flip();
+	if ( header.getInt() != LinkGraph.MAGIC ) {
+	    throw new IOException( "Not a graph file" );
+	}
+	n = header.getInt();
+	outLinkStartPosition = 12 + 4L * (n+1);
+	outLinksPosition = outLinkStartPosition + 4L * (n+1);
+    }
+
+
+    /**
+     *   Computes the pagerank.
+     */
+    public double[] compute() throws IOException {
+	long start = System.nanoTime();
+	double[] x = new double[n];
+	double[] xPrime = new double[n];
+	xPrime[0] = 1;
+	double delta = 1;
+	int k = 0;
+	for ( ; k<PageRank.MAX_NUMBER_OF_ITERATIONS && delta>PageRank.EPSILON; ++k ) {
+	    double[] previous = x;
+	    x = xPrime;
+	    xPrime = previous;
+	    delta = iterate( x, xPrime );
+	}
+	System.err.println( "streaming: " + k + " iterations, " + (System.nanoTime() - start) / 1000000 + " ms" );
+	return xPrime;
+    }
+
+
+    /**
+     *   Does one step of the power iteration from x into xPrime, reading
+     *   all the links once.
+     *
+     *   @return the distance between x and xPrime.
+     */
+    private double iterate( double[] x, double[] xPrime ) throws IOException {
+	IntReader starts = new IntReader( outLinkStartPosition );
+	IntReader links = new IntReader( outLinksPosition );
+	Arrays.fill( xPrime, 0 );
+	double sinkRank = 0;
+	double totalRank = 0;
+	int start = starts.next();
+	for ( int i=0; i<n; i++ ) {
+	    int end = starts.next();
+	    totalRank += x[i];
+	    if ( end == start ) {
+		sinkRank += x[i];
+	    }
+	    else {
+		double share = x[i] / (end - start);
+		for ( int k=start; k<end; k++ ) {
+		    xPrime[links.next()] += share;
+		}
+	    }
+	    start = end;
+	}
+
+	double jump = ((1 - PageRank.BORED) * sinkRank + PageRank.BORED * totalRank) / n;
+	double delta = 0;
+	for ( int i=0; i<n; i++ ) {
+	    xPrime[i] = (1 - PageRank.BORED) * xPrime[i] + jump;
+	    delta += Math.pow( x[i] - xPrime[i], 2 );
+	}
+	return Math.sqrt( delta );
+    }
+
+
+    /**
+     *   Reads the ints of the file one by one from a position on,
+     *   BUFFER_SIZE bytes at a time.
+     */
+    private class IntReader {
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect( BUFFER_SIZE );
+	private long position;
+
+	IntReader( long position ) {
+	    this.position = position;
+	    buffer.limit( 0 );
+	}
+
+	int next() throws IOException {
+	    if ( buffer.remaining() < 4 ) {
+		buffer.compact();
+		while ( buffer.position() < 4 ) {
+		    int read = channel.read( buffer, position );
+		    if ( read < 0 ) {
+			throw new EOFException();
+		    }
+		    position += read;
+		}
+		buffer.flip();
+	    }
+	    return buffer.getInt();
+	}
+    }
+
+
+    /**
+     *   Writes the pagerank to PageRank.PAGERANK_FILENAME, in the format
+     *   of PageRank.
+     */
+    static void writeToDisk( double[] pagerank ) throws IOException {
+	PrintWriter writer = new PrintWriter( new BufferedWriter( new FileWriter( PageRank.PAGERANK_FILENAME ), BUFFER_SIZE ));
+	for ( double rank : pagerank ) {
+	    writer.println( rank );
+	}
+	writer.close();
+    }
+
+
+    public static void main( String[] args ) {
+	if ( args.length != 1 ) {
+	    System.err.println( "Please give the name of the graph file" );
+	}
+	else {
+	    try {
+		RandomAccessFile file = new RandomAccessFile( args[0], "r" );
+		double[] pagerank = new StreamingPageRank( file.getChannel() ).compute();
+		file.close();
+		writeToDisk( pagerank );
+	    }
+	    catch ( IOException e ) {
+		e.printStackTrace();
+	    }
+	}
+    }
+}